@@ -0,0 +1,55 @@
+package Demo1;
+
+import java.util.regex.Pattern;
+
+/*
+ * 一次访存请求：目标节点、操作类型、地址与写入值
+ * 供批量接口和脚本面板使用，校验用预编译的正则
+ */
+class Access {
+    private static final Pattern ADDRESS = Pattern.compile("^0X[0-9A-F]{6}$");       // 24位十六进制地址
+    private static final Pattern WRITE_VALUE = Pattern.compile("^[0-9A-F]{16}$");    // 16字节十六进制写入值
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    final String cpuId;         // 目标CPU节点
+    final String operation;     // "读"、"写" 或原子操作(CAS/FAA/SWAP/LL/SC)
+    final String address;       // 大写地址，如 0X001230
+    final String writeValue;    // 写入值或原子操作的操作数(读请求可为任意值)
+
+    Access(String cpuId, String operation, String address, String writeValue) {
+        this.cpuId = cpuId;
+        this.operation = operation;
+        this.address = address;
+        this.writeValue = writeValue;
+    }
+
+    /*
+     * 校验地址与写入值格式，合法返回null，否则返回错误信息
+     */
+    String validate() {
+        if (!ADDRESS.matcher(address).matches()) return "无效地址格式（需为24位十六进制）";
+        if (Atomics.isAtomic(operation)) return Atomics.validate(operation, writeValue);
+        if (!operation.equals("读") && !operation.equals("写")) return "操作类型必须为读、写或原子操作";
+        if (operation.equals("写") && !WRITE_VALUE.matcher(writeValue).matches()) return "写入值必须为16字节十六进制";
+        return null;
+    }
+
+    /*
+     * 解析脚本中的一行，格式：CPU节点 操作 地址 [写入值]
+     * 操作可写作 读/写 或 R/W，例如 "CPU01 写 0x001230 0123456789ABCDEF"；
+     * 原子操作的操作数写在写入值位置，例如 "CPU00 CAS 0x001230 0,1"、"CPU01 FAA 0x001234 1"
+     */
+    static Access parse(String line) {
+        String[] fields = WHITESPACE.split(line.trim());
+        if (fields.length < 3) throw new IllegalArgumentException("格式应为: CPU节点 操作 地址 [写入值]");
+        String operation;
+        switch (fields[1].toUpperCase()) {
+            case "读": case "R": operation = "读"; break;
+            case "写": case "W": operation = "写"; break;
+            case "CAS": case "FAA": case "SWAP": case "LL": case "SC": operation = fields[1].toUpperCase(); break;
+            default: throw new IllegalArgumentException("未知操作类型: " + fields[1]);
+        }
+        String writeValue = fields.length > 3 ? fields[3].toUpperCase() : "";
+        return new Access(fields[0].toUpperCase(), operation, fields[2].toUpperCase(), writeValue);
+    }
+}
@@ -0,0 +1,176 @@
+package Demo1;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Arrays;
+
+/*
+ * 访问热图：各节点各Cache组的缺失、按块的作废次数、请求节点到归属节点的流量，Snoop和Directory共用
+ * 计数按访存次数指数衰减(半衰期HALF_LIFE次访存)：每次访存只把全局权重乘以增长因子，
+ * 事件按当前权重累加，显示值为计数除以权重，因此每次访存与每个事件都是O(1)，权重过大时整体缩放一次。
+ * 界面由定时器按固定帧率重绘，与仿真速度无关；仿真与重绘都在事件分派线程上，无需同步
+ */
+class AccessHeatmap extends JPanel {
+    static final int FPS = Math.max(1, Integer.getInteger("heatmap.fps", 10));
+    static final int HALF_LIFE = Math.max(1, Integer.getInteger("heatmap.halflife", 1000));
+    private static final int BLOCK_BINS = 256;          // 块作废按块号散列到16×16个格子
+    private static final double RESCALE_LIMIT = 1e100;
+
+    private final String[] nodeIds;
+    private final String[] homeIds;         // 归属节点(存储节点)名称
+    private final int sets;
+    private final double[] setMisses;       // [节点*组数+组]
+    private final double[] invalidations;   // [散列格子]
+    private final int[] binBlocks;          // 每个格子最近落入的块号(地址去掉0X与偏移)，-1为空
+    private final double[] homeTraffic;     // [请求节点*归属节点数+归属节点]
+    private final double growth = Math.pow(2, 1.0 / HALF_LIFE);
+    private double weight = 1;
+    private long accesses;
+    private final Timer timer = new Timer(1000 / FPS, e -> repaint());
+
+    AccessHeatmap(String[] nodeIds, String[] homeIds, int sets) {
+        this.nodeIds = nodeIds;
+        this.homeIds = homeIds;
+        this.sets = sets;
+        setMisses = new double[nodeIds.length * sets];
+        invalidations = new double[BLOCK_BINS];
+        binBlocks = new int[BLOCK_BINS];
+        homeTraffic = new double[nodeIds.length * homeIds.length];
+        Arrays.fill(binBlocks, -1);
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension(900, 520));
+    }
+
+    // 每次访存调用一次：推进衰减
+    void tick() {
+        accesses++;
+        weight *= growth;
+        if (weight > RESCALE_LIMIT) rescale();
+    }
+
+    void miss(int node, int set) {
+        setMisses[node * sets + set] += weight;
+    }
+
+    // 块作废：address形如0X001234，targets为被作废的副本数
+    void invalidation(String address, int targets) {
+        if (targets == 0) return;
+        int block = Integer.parseInt(address.substring(2, 7), 16);
+        int bin = (block * 0x9E3779B1) >>> 24;
+        invalidations[bin] += weight * targets;
+        binBlocks[bin] = block;
+    }
+
+    // 离开请求节点发往归属节点的一次访问(缺失或写回)
+    void traffic(int requester, int home) {
+        homeTraffic[requester * homeIds.length + home] += weight;
+    }
+
+    void reset() {
+        Arrays.fill(setMisses, 0);
+        Arrays.fill(invalidations, 0);
+        Arrays.fill(homeTraffic, 0);
+        Arrays.fill(binBlocks, -1);
+        weight = 1;
+        accesses = 0;
+    }
+
+    // 所有计数除以当前权重，权重回到1，显示值不变
+    private void rescale() {
+        for (double[] counters : new double[][]{setMisses, invalidations, homeTraffic}) {
+            for (int i = 0; i < counters.length; i++) counters[i] /= weight;
+        }
+        weight = 1;
+    }
+
+    // 只在显示时按帧率重绘
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        int nodes = nodeIds.length;
+        int y = 20;
+        g2.setColor(Color.BLACK);
+        g2.drawString(String.format("访存:%d  半衰期:%d次访存  帧率:%d", accesses, HALF_LIFE, FPS), 10, y);
+
+        // 各节点各组的缺失：看哪些组冲突
+        y += 25;
+        g2.drawString("各组缺失(行:节点 列:Cache组)", 10, y);
+        String[] setLabels = new String[sets];
+        Arrays.setAll(setLabels, i -> Integer.toHexString(i).toUpperCase());
+        y = drawGrid(g2, setMisses, nodes, sets, nodeIds, setLabels, null, 60, y + 10, 36, 22);
+
+        // 块作废：看哪些块在节点间来回迁移
+        y += 25;
+        g2.setColor(Color.BLACK);
+        g2.drawString("块作废(块号散列到16×16格，格中为最近的块地址)", 10, y);
+        String[] blockLabels = new String[BLOCK_BINS];
+        for (int i = 0; i < BLOCK_BINS; i++) blockLabels[i] = binBlocks[i] < 0 ? null : String.format("%05X", binBlocks[i]);
+        int blockTop = y + 10;
+        drawGrid(g2, invalidations, 16, 16, null, null, blockLabels, 60, blockTop, 36, 18);
+
+        // 请求节点到归属节点的流量：看远程访问与归属热点
+        int x = 60 + 16 * 36 + 30;
+        if (x + 60 + homeIds.length * 40 > getWidth()) return;
+        g2.setColor(Color.BLACK);
+        g2.drawString("请求→归属节点流量", x, blockTop - 10);
+        drawGrid(g2, homeTraffic, nodes, homeIds.length, nodeIds, homeIds, null, x + 50, blockTop + 15, 40, 22);
+    }
+
+    /*
+     * 按行列画一张热度网格，颜色按本网格当前最大值归一化，返回网格下边缘的y坐标
+     */
+    private int drawGrid(Graphics2D g2, double[] counters, int rows, int columns, String[] rowLabels, String[] columnLabels,
+                         String[] cellLabels, int left, int top, int cellWidth, int cellHeight) {
+        double max = 0;
+        for (double counter : counters) max = Math.max(max, counter);
+        FontMetrics metrics = g2.getFontMetrics();
+        if (columnLabels != null) {
+            g2.setColor(Color.DARK_GRAY);
+            for (int c = 0; c < columns; c++) g2.drawString(columnLabels[c], left + c * cellWidth + 4, top + 12);
+            top += 16;
+        }
+        for (int r = 0; r < rows; r++) {
+            int cy = top + r * cellHeight;
+            if (rowLabels != null) {
+                g2.setColor(Color.DARK_GRAY);
+                g2.drawString(rowLabels[r], left - metrics.stringWidth(rowLabels[r]) - 6, cy + cellHeight - 6);
+            }
+            for (int c = 0; c < columns; c++) {
+                int index = r * columns + c;
+                double heat = max == 0 ? 0 : counters[index] / max;
+                int cx = left + c * cellWidth;
+                g2.setColor(heatColor(heat));
+                g2.fillRect(cx, cy, cellWidth - 1, cellHeight - 1);
+                if (cellLabels != null && cellLabels[index] != null && heat > 0.05) {
+                    Font font = g2.getFont();
+                    g2.setColor(heat > 0.6 ? Color.WHITE : Color.BLACK);
+                    g2.setFont(font.deriveFont(9f));
+                    g2.drawString(cellLabels[index], cx + 2, cy + cellHeight - 5);
+                    g2.setFont(font);
+                }
+            }
+        }
+        return top + rows * cellHeight;
+    }
+
+    // 由白到黄再到红
+    private static Color heatColor(double heat) {
+        heat = Math.max(0, Math.min(1, heat));
+        if (heat < 0.5) return new Color(255, 255, (int) (255 * (1 - heat * 2)));
+        return new Color(255, (int) (255 * (2 - heat * 2)), 0);
+    }
+}
@@ -0,0 +1,196 @@
+package Demo1;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * 原子读-改-写操作(CAS、FAA、SWAP、LL/SC)的语义与锁行争用统计，Snoop和Directory共用
+ * 操作数是地址偏移所指的一个数据元素(一位十六进制数，运算按16取模)。
+ * CAS/FAA/SWAP无论成败都以写的方式取得独占所有权(失败的CAS写回原值)，走与普通写相同的作废/更新路径；
+ * LL按读处理并记下预约，SC仅在该块仍在本节点Cache中且LL以来没有任何节点写过该块时成功，失败时不发出总线请求。
+ * 被原子操作访问过的块视为锁行，此后对它的所有访问(包括自旋读)都计入争用统计
+ */
+class Atomics {
+    static final String[] OPERATIONS = {"读", "写", "CAS", "FAA", "SWAP", "LL", "SC"};
+
+    static boolean isAtomic(String operation) {
+        switch (operation) {
+            case "CAS": case "FAA": case "SWAP": case "LL": case "SC": return true;
+            default: return false;
+        }
+    }
+
+    /*
+     * 校验原子操作的操作数，合法返回null：CAS为"期望值,新值"，FAA为加数，SWAP/SC为新值，LL无操作数
+     */
+    static String validate(String operation, String operand) {
+        switch (operation) {
+            case "CAS": return operand.matches("^[0-9A-F],[0-9A-F]$") ? null : "CAS操作数应为 期望值,新值 (各一位十六进制)";
+            case "FAA": return operand.matches("^[0-9A-F]$") ? null : "FAA操作数应为一位十六进制加数";
+            case "SWAP": case "SC": return operand.matches("^[0-9A-F]$") ? null : operation + "操作数应为一位十六进制新值";
+            default: return null;
+        }
+    }
+
+    /*
+     * 一次原子操作的结果：performed为false表示SC失败、不访问存储系统；
+     * writes为true时writeValue为写回整块的新数据
+     */
+    static class Result {
+        boolean performed = true;
+        boolean writes;
+        String writeValue = "";
+        String text;
+    }
+
+    // 锁行的争用统计
+    static class LineStats {
+        final Set<String> nodes = new TreeSet<>();
+        long accesses;
+        long misses;
+        long writes;
+        long transfers;     // 写者与上一个写者不同：所有权在节点间迁移
+        long atomics;
+        long casAttempts;
+        long casFailures;
+        long scAttempts;
+        long scFailures;
+    }
+
+    private final Map<String, Long> versions = new HashMap<>();      // 块地址 -> 写次数
+    private final Map<String, String> lastWriter = new HashMap<>();  // 块地址 -> 最近写者
+    private final Map<String, String> links = new HashMap<>();       // 节点 -> LL预约的块地址
+    private final Map<String, Long> linkVersions = new HashMap<>();  // 节点 -> 预约时该块的写次数
+    final Map<String, LineStats> lockLines = new TreeMap<>();
+
+    /*
+     * 记录一次普通读写(地址形如0X001234)
+     */
+    void access(String nodeId, String address, boolean write, boolean hit) {
+        String block = address.substring(2, 7);
+        LineStats line = lockLines.get(block);
+        if (line != null) count(line, nodeId, hit);
+        if (write) noteWrite(nodeId, block, line);
+    }
+
+    private static void count(LineStats line, String nodeId, boolean hit) {
+        line.nodes.add(nodeId);
+        line.accesses++;
+        if (!hit) line.misses++;
+    }
+
+    private void noteWrite(String nodeId, String block, LineStats line) {
+        versions.merge(block, 1L, Long::sum);
+        String previous = lastWriter.put(block, nodeId);
+        if (line == null) return;
+        line.writes++;
+        if (previous != null && !previous.equals(nodeId)) line.transfers++;
+    }
+
+    /*
+     * 执行一次原子操作，data为该块当前的一致数据，hit为本节点Cache(含牺牲缓存)是否持有该块
+     */
+    Result execute(String nodeId, String operation, String address, String operand, String[] data, boolean hit) {
+        String block = address.substring(2, 7);
+        int offset = Integer.parseInt(address.substring(7, 8), 16);
+        int old = Integer.parseInt(data[offset], 16) & 0xF;
+        LineStats line = lockLines.computeIfAbsent(block, b -> new LineStats());
+        Result result = new Result();
+        int value = old;
+        switch (operation) {
+            case "CAS":
+                line.casAttempts++;
+                boolean swapped = old == Character.digit(operand.charAt(0), 16);
+                if (swapped) value = Character.digit(operand.charAt(2), 16); else line.casFailures++;
+                result.writes = true;
+                result.text = String.format("CAS%s 旧值:%X", swapped ? "成功" : "失败", old);
+                break;
+            case "FAA":
+                value = (old + Character.digit(operand.charAt(0), 16)) & 0xF;
+                result.writes = true;
+                result.text = String.format("FAA 旧值:%X", old);
+                break;
+            case "SWAP":
+                value = Character.digit(operand.charAt(0), 16);
+                result.writes = true;
+                result.text = String.format("SWAP 旧值:%X", old);
+                break;
+            case "LL":
+                links.put(nodeId, block);
+                linkVersions.put(nodeId, versions.getOrDefault(block, 0L));
+                result.text = String.format("LL 值:%X", old);
+                break;
+            case "SC":
+                line.scAttempts++;
+                boolean linked = hit && block.equals(links.get(nodeId))
+                    && linkVersions.get(nodeId).equals(versions.getOrDefault(block, 0L));
+                links.remove(nodeId);
+                if (!linked) {
+                    line.scFailures++;
+                    line.nodes.add(nodeId);
+                    line.atomics++;
+                    result.performed = false;
+                    result.text = "SC失败";
+                    return result;
+                }
+                value = Character.digit(operand.charAt(0), 16);
+                result.writes = true;
+                result.text = "SC成功";
+                break;
+            default:
+                throw new IllegalArgumentException("不是原子操作: " + operation);
+        }
+        line.atomics++;
+        count(line, nodeId, hit);
+        if (result.writes) {
+            String[] newData = data.clone();
+            newData[offset] = String.format("%X", value);
+            result.writeValue = String.join("", newData);
+            noteWrite(nodeId, block, line);
+        }
+        return result;
+    }
+
+    /*
+     * 一行汇总：CAS/SC失败率，所有权迁移率(锁行上的写中换了写者的比例)
+     */
+    String summary() {
+        long atomics = 0, cas = 0, casFailures = 0, sc = 0, scFailures = 0, writes = 0, transfers = 0, contended = 0;
+        for (LineStats line : lockLines.values()) {
+            atomics += line.atomics;
+            cas += line.casAttempts;
+            casFailures += line.casFailures;
+            sc += line.scAttempts;
+            scFailures += line.scFailures;
+            writes += line.writes;
+            transfers += line.transfers;
+            if (line.nodes.size() > 1) contended++;
+        }
+        return String.format("原子:%d CAS失败:%.1f%% SC失败:%.1f%% 锁行:%d(争用%d) 所有权迁移:%d(%.1f%%)",
+            atomics, percent(casFailures, cas), percent(scFailures, sc), lockLines.size(), contended,
+            transfers, percent(transfers, writes));
+    }
+
+    /*
+     * 按锁行列出争用统计
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-8s%-22s%8s%8s%8s%8s%8s%10s%8s%10s%n",
+            "锁行", "访问节点", "访问", "缺失", "原子", "CAS失败", "SC失败", "所有权迁移", "写", "迁移率"));
+        for (Map.Entry<String, LineStats> entry : lockLines.entrySet()) {
+            LineStats line = entry.getValue();
+            sb.append(String.format("%-8s%-22s%8d%8d%8d%8s%8s%10d%8d%9.1f%%%n",
+                "0X" + entry.getKey() + "0", String.join(",", line.nodes), line.accesses, line.misses, line.atomics,
+                line.casFailures + "/" + line.casAttempts, line.scFailures + "/" + line.scAttempts,
+                line.transfers, line.writes, percent(line.transfers, line.writes)));
+        }
+        return sb.append(System.lineSeparator()).append(summary()).toString();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : part * 100.0 / whole;
+    }
+}
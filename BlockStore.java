@@ -0,0 +1,191 @@
+package Demo1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * 存储器块存储：零块消除 + 可选的BDI(base-delta-immediate)压缩
+ * 以块号(地址/16)为键，全0块不占存储，读取时返回共享的规范零块(只读，调用方需复制后再修改)；
+ * 非零块按BDI选出最短编码保存为byte[]，-Dmemory.compress=none时按原样16字节保存。
+ * 块数据沿用界面的表示：16个元素，每个元素为一个字节值的十六进制字符串
+ */
+class BlockStore {
+    static final int BLOCK_SIZE = 16;
+    static final boolean COMPRESS = !System.getProperty("memory.compress", "bdi").equals("none");
+    static final long ADDRESS_SPACE_BLOCKS = 0x100000; // 原实现初始化的块数(每个存储器)
+
+    // 规范零块，所有全0块的读取共享这一份
+    private static final String[] ZERO_LINE = new String[BLOCK_SIZE];
+    private static final String[] HEX = new String[256];
+    static {
+        Arrays.fill(ZERO_LINE, "0");
+        for (int i = 0; i < HEX.length; i++) HEX[i] = Integer.toHexString(i).toUpperCase();
+    }
+
+    // 编码：首字节为编码号，其后为载荷
+    static final int REPEAT = 0;    // 16字节全相同：1B
+    static final int B4D1 = 1;      // 4字节基值 + 3个1字节差值：7B
+    static final int B8D1 = 2;      // 8字节基值 + 1个1字节差值：9B
+    static final int B2D1 = 3;      // 2字节基值 + 7个1字节差值：9B
+    static final int B4D2 = 4;      // 4字节基值 + 3个2字节差值：10B
+    static final int RAW = 5;       // 不压缩：16B
+    static final String[] ENCODING_NAMES = {"重复", "B4Δ1", "B8Δ1", "B2Δ1", "B4Δ2", "原样"};
+
+    // 估算堆占用的常量(64位JVM，压缩指针)
+    private static final int OLD_ENTRY_BYTES = 32 + 48 + 80;    // HashMap节点 + "0x000000"键 + String[16]
+    private static final int ENTRY_OVERHEAD_BYTES = 32 + 16 + 16; // HashMap节点 + Integer键 + byte[]对象头
+
+    private final Map<Integer, byte[]> lines = new HashMap<>();
+    long writes;        // 写入次数
+    long zeroWrites;    // 写入全0块(被消除)的次数
+
+    // 地址(形如0X001230，大小写均可)所在的块号
+    private static int blockOf(String address) {
+        return Integer.parseInt(address.substring(2), 16) / BLOCK_SIZE;
+    }
+
+    /*
+     * 读取块数据；全0块返回共享的规范零块
+     */
+    String[] read(String address) {
+        byte[] encoded = lines.get(blockOf(address));
+        return encoded == null ? ZERO_LINE : decode(encoded);
+    }
+
+    void write(String address, String[] data) {
+        writes++;
+        int[] bytes = new int[BLOCK_SIZE];
+        boolean zero = true;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            bytes[i] = Integer.parseInt(data[i], 16) & 0xFF;
+            zero &= bytes[i] == 0;
+        }
+        if (zero) {
+            zeroWrites++;
+            lines.remove(blockOf(address));
+        } else {
+            lines.put(blockOf(address), encode(bytes));
+        }
+    }
+
+    /*
+     * 把块(若非零)移到另一个存储器，返回是否搬运了数据
+     */
+    boolean moveTo(String address, BlockStore target) {
+        byte[] encoded = lines.remove(blockOf(address));
+        if (encoded == null) return false;
+        target.lines.put(blockOf(address), encoded);
+        return true;
+    }
+
+    static byte[] encode(int[] b) {
+        if (!COMPRESS) return raw(b);
+        boolean repeat = true;
+        for (int i = 1; i < BLOCK_SIZE; i++) repeat &= b[i] == b[0];
+        if (repeat) return new byte[]{REPEAT, (byte) b[0]};
+
+        byte[] best = raw(b);
+        int[][] configs = {{4, 1, B4D1}, {8, 1, B8D1}, {2, 1, B2D1}, {4, 2, B4D2}};
+        for (int[] config : configs) {
+            byte[] candidate = baseDelta(b, config[0], config[1], config[2]);
+            if (candidate != null && candidate.length < best.length) best = candidate;
+        }
+        return best;
+    }
+
+    private static byte[] raw(int[] b) {
+        byte[] out = new byte[1 + BLOCK_SIZE];
+        out[0] = RAW;
+        for (int i = 0; i < BLOCK_SIZE; i++) out[1 + i] = (byte) b[i];
+        return out;
+    }
+
+    /*
+     * 以第一个字为基值，其余字与基值的差能用deltaBytes字节有符号数表示时编码，否则返回null
+     */
+    private static byte[] baseDelta(int[] b, int wordBytes, int deltaBytes, int encoding) {
+        int words = BLOCK_SIZE / wordBytes;
+        long base = word(b, 0, wordBytes);
+        long limit = 1L << (deltaBytes * 8 - 1);
+        byte[] out = new byte[1 + wordBytes + (words - 1) * deltaBytes];
+        out[0] = (byte) encoding;
+        putBytes(out, 1, base, wordBytes);
+        for (int w = 1; w < words; w++) {
+            long delta = word(b, w, wordBytes) - base;
+            if (delta < -limit || delta >= limit) return null;
+            putBytes(out, 1 + wordBytes + (w - 1) * deltaBytes, delta, deltaBytes);
+        }
+        return out;
+    }
+
+    // 第w个字(大端)
+    private static long word(int[] b, int w, int wordBytes) {
+        long value = 0;
+        for (int i = 0; i < wordBytes; i++) value = (value << 8) | b[w * wordBytes + i];
+        return value;
+    }
+
+    private static void putBytes(byte[] out, int at, long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            out[at + i] = (byte) value;
+            value >>= 8;
+        }
+    }
+
+    private static long getBytes(byte[] in, int at, int count, boolean signed) {
+        long value = signed ? in[at] : in[at] & 0xFF;
+        for (int i = 1; i < count; i++) value = (value << 8) | (in[at + i] & 0xFF);
+        return value;
+    }
+
+    static String[] decode(byte[] encoded) {
+        String[] data = new String[BLOCK_SIZE];
+        switch (encoded[0]) {
+            case REPEAT:
+                Arrays.fill(data, HEX[encoded[1] & 0xFF]);
+                return data;
+            case RAW:
+                for (int i = 0; i < BLOCK_SIZE; i++) data[i] = HEX[encoded[1 + i] & 0xFF];
+                return data;
+            default:
+                int wordBytes = encoded[0] == B8D1 ? 8 : encoded[0] == B2D1 ? 2 : 4;
+                int deltaBytes = encoded[0] == B4D2 ? 2 : 1;
+                long base = getBytes(encoded, 1, wordBytes, false);
+                for (int w = 0; w < BLOCK_SIZE / wordBytes; w++) {
+                    long value = w == 0 ? base
+                        : base + getBytes(encoded, 1 + wordBytes + (w - 1) * deltaBytes, deltaBytes, true);
+                    for (int i = wordBytes - 1; i >= 0; i--) {
+                        data[w * wordBytes + i] = HEX[(int) (value & 0xFF)];
+                        value >>= 8;
+                    }
+                }
+                return data;
+        }
+    }
+
+    /*
+     * 汇总若干存储器的压缩效果与估算堆占用
+     */
+    static String summary(BlockStore... stores) {
+        int[] counts = new int[ENCODING_NAMES.length];
+        long lines = 0, compressedBytes = 0, heapBytes = 0;
+        for (BlockStore store : stores) {
+            for (byte[] encoded : store.lines.values()) {
+                counts[encoded[0]]++;
+                lines++;
+                compressedBytes += encoded.length - 1; // 编码号可放在标记中，不计入数据
+                heapBytes += ENTRY_OVERHEAD_BYTES + ((encoded.length + 7) / 8) * 8;
+            }
+        }
+        StringBuilder encodings = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) encodings.append(' ').append(ENCODING_NAMES[i]).append(':').append(counts[i]);
+        }
+        long oldHeap = ADDRESS_SPACE_BLOCKS * OLD_ENTRY_BYTES * stores.length;
+        return String.format("存储: 非零块:%d%s 压缩后%dB/原始%dB(压缩比%.2f) 估算堆:%.1fKB (逐块String[]初始化约%.0fMB)",
+            lines, encodings, compressedBytes, lines * BLOCK_SIZE,
+            compressedBytes == 0 ? 1.0 : (double) lines * BLOCK_SIZE / compressedBytes,
+            heapBytes / 1024.0, oldHeap / (1024.0 * 1024));
+    }
+}
@@ -22,6 +22,43 @@ public class Directory extends JFrame {
     private static final int CACHE_BLOCKS = 16;    // 每个CPU的缓存块数量
     private static final int BLOCK_SIZE = 16;      // 每个缓存块的数据大小(字节)
     private static final int PRIVATE_MEM_SIZE = 4 * 1024 * 1024; // 每个节点的私有存储器大小(4MB)
+    // 每个节点的牺牲缓存项数(2~16)，可通过 -Dvictim.entries=N 配置
+    private static final int VICTIM_ENTRIES = Math.max(2, Math.min(16, Integer.getInteger("victim.entries", 4)));
+    // 预取器类型，可通过 -Dprefetcher=none|next-line|stream|adjacent 配置，界面上也可切换
+    private static String prefetcherType = System.getProperty("prefetcher", "none");
+    // 写缓冲项数，可通过 -Dstore.buffer.entries=N 配置
+    private static final int STORE_BUFFER_ENTRIES = Math.max(1, Integer.getInteger("store.buffer.entries", 8));
+    private static final int STORE_DRAIN_PER_CYCLE = 1; // 每个周期每个节点后台提交的写缓冲项数
+    // 每个节点的MSHR项数与缺失延迟(周期)，可通过 -Dmshr.entries=N -Dmshr.latency=N 配置
+    private static final int MSHR_ENTRIES = Math.max(1, Integer.getInteger("mshr.entries", 4));
+    private static final int MSHR_LATENCY = Math.max(1, Integer.getInteger("mshr.latency", 4));
+    private static final int MSHR_REMOTE_LATENCY = Math.max(1, Integer.getInteger("mshr.remote.latency", 8)); // 归属节点在远端
+    private static final String MSHR_MERGED = "MSHR合并";
+    private static final int DATA_MESSAGE_BYTES = EnergyModel.HEADER_BYTES + BLOCK_SIZE; // 携带一整块的网络消息
+    private static final long REPLAY_SLICE_NANOS = 20_000_000; // 回放时每次占用事件分派线程的时间，其余时间留给重绘
+    // 每个节点的目录容量与相联度，可通过 -Ddirectory.entries=N -Ddirectory.ways=W 配置
+    // 项数须为相联度的整数倍，组数(项数/相联度)须为2的幂
+    private static final int DIRECTORY_ENTRIES = Math.max(1, Integer.getInteger("directory.entries", 64));
+    private static final int DIRECTORY_WAYS = Math.max(1, Math.min(DIRECTORY_ENTRIES, Integer.getInteger("directory.ways", 4)));
+    // 共享者编码：full(全位向量)、dir-i-b(有限指针，溢出后广播)、dir-i-nb(有限指针，溢出时替换指针)、
+    // coarse(按节点组的粗位向量)，可通过 -Ddirectory.encoding=... 配置
+    private static final String SHARER_ENCODING = System.getProperty("directory.encoding", "full");
+    private static final int DIRECTORY_POINTERS = Math.max(1, Integer.getInteger("directory.pointers", 2)); // 有限指针数i
+    private static final int COARSE_GROUP = Math.max(1, Integer.getInteger("directory.group", 2)); // 粗向量每位对应的节点数
+    private static final int SCALE_NODES = Integer.getInteger("directory.scale.nodes", 256); // 估算存储开销的目标节点规模
+    // 独占块的转发方式：3-hop(请求者→归属→拥有者→请求者)或4-hop(经归属节点中转)，可通过 -Dforwarding=3-hop|4-hop 配置
+    private static String forwardingPolicy = System.getProperty("forwarding", "3-hop");
+    // 是否启用迁移共享优化，可通过 -Dmigratory=true 配置
+    private static boolean migratoryEnabled = Boolean.getBoolean("migratory");
+    // 内存模型：SC下写直接获取所有权，TSO下写进入写缓冲，可通过 -Dmemory.model=SC|TSO 配置
+    private static String memoryModel = System.getProperty("memory.model", "SC");
+    // 存储放置策略：high(高位交叉)、block(按块低位交叉)、page(按页交叉)、first-touch(首次访问的节点为归属)、
+    // migrate(首次访问 + 按访问计数迁移页)，可通过 -Dplacement=... 配置，界面上也可切换
+    private static String placementPolicy = System.getProperty("placement", "high");
+    private static final String[] PLACEMENT_POLICIES = {"high", "block", "page", "first-touch", "migrate"};
+    private static final int PAGE_SIZE = Integer.getInteger("placement.page", 4096); // 页大小(字节)
+    // 某远程节点对一页的访问次数比归属节点多出该值时把页迁往该节点，可通过 -Dplacement.migrate.threshold=N 配置
+    private static final int MIGRATE_THRESHOLD = Math.max(1, Integer.getInteger("placement.migrate.threshold", 8));
 
     // 状态枚举
     enum CacheState { 
@@ -43,27 +80,26 @@ public class Directory extends JFrame {
     static class CPUNode {
         String id;                  // CPU节点标识符
         CacheBlock[] cacheBlocks;    // 缓存块数组
-        Map<String,String[]> privateMemory;      // 私有存储器(4MB)
-        Map<String, DirectoryEntry> directory; // 目录(跟踪其他节点缓存状态)
+        BlockStore privateMemory;   // 私有存储器(4MB)，全0块不占存储
+        SparseDirectory directory;  // 目录(跟踪其他节点缓存状态)
+        VictimCache victimCache;    // 牺牲缓存
+        Prefetcher prefetcher;      // 硬件预取器
+        Prefetcher.Stats prefetchStats = new Prefetcher.Stats(); // 预取统计
+        long accessCount;           // 本节点的需求访存次数
+        StoreBuffer storeBuffer = new StoreBuffer(STORE_BUFFER_ENTRIES); // 写缓冲(TSO模式)
+        MissStatusRegisters mshr = new MissStatusRegisters(MSHR_ENTRIES); // 缺失状态保持寄存器
 
         public CPUNode(String id) {
             this.id = id;
             this.cacheBlocks = new CacheBlock[CACHE_BLOCKS];
             Arrays.setAll(cacheBlocks, i -> new CacheBlock());
             
-             // 初始化内存 (地址 -> 数据)
-            this.privateMemory = new HashMap<>();
-            initMemory();
+             // 初始化内存(全0)
+            this.privateMemory = new BlockStore();
             // 初始化目录
-            this.directory = new HashMap<>();
-        }
-        
-        private void initMemory() {
-        	 for (int i = 0; i < 0x100000; i++) { 
-                 String address = String.format("0x%06X", i);
-                 privateMemory.put(address, new String[BLOCK_SIZE]);
-                 Arrays.fill(privateMemory.get(address), "0"); // 初始数据全为0
-             }
+            this.directory = new SparseDirectory(DIRECTORY_ENTRIES, DIRECTORY_WAYS);
+            this.victimCache = new VictimCache(VICTIM_ENTRIES);
+            this.prefetcher = Prefetcher.create(prefetcherType);
         }
         
     }
@@ -71,11 +107,198 @@ public class Directory extends JFrame {
     // 目录项数据结构
     static class DirectoryEntry {
         DirectoryState state;         // 目录状态
-        Set<String> sharingSet;      // 共享该块的节点集合
+        Set<String> sharingSet;      // 共享该块的节点集合(实际持有副本的节点，按加入顺序)
+        boolean overflow;            // dir-i-b：共享者超过指针数，作废时需广播
+        int groupBits;               // coarse：有共享者的节点组位图
+        String lastWriter;           // 最近一次写该块的节点
+        boolean migratory;           // 检测到读-改-写迁移模式
         
         public DirectoryEntry() {
             this.state = DirectoryState.UNCACHED;
-            this.sharingSet = new HashSet<>();
+            this.sharingSet = new LinkedHashSet<>();
+        }
+        
+        // 清空共享者及其编码
+        void clearSharers() {
+            sharingSet.clear();
+            overflow = false;
+            groupBits = 0;
+        }
+    }
+    
+    // 每个目录项按当前编码记录共享者所需的位数
+    static int sharerBits(int nodes) {
+        int pointerBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, nodes - 1)); // ceil(log2 N)
+        switch (SHARER_ENCODING) {
+            case "dir-i-b": return DIRECTORY_POINTERS * pointerBits + 1;
+            case "dir-i-nb": return DIRECTORY_POINTERS * pointerBits;
+            case "coarse": return (nodes + COARSE_GROUP - 1) / COARSE_GROUP;
+            default: return nodes;
+        }
+    }
+    
+    static String encodingName() {
+        switch (SHARER_ENCODING) {
+            case "dir-i-b": return "Dir" + DIRECTORY_POINTERS + "B";
+            case "dir-i-nb": return "Dir" + DIRECTORY_POINTERS + "NB";
+            case "coarse": return "粗向量/" + COARSE_GROUP;
+            default: return "全向量";
+        }
+    }
+
+    /*
+     * 一致性消息统计：每个事务的关键路径跳数与消息数，以及迁移共享优化的效果
+     */
+    static class CoherenceStats {
+        int transactions;           // 经过目录的事务数
+        int messages;               // 网络消息总数
+        long criticalHops;          // 关键路径跳数之和
+        int threeHopForwards;       // 拥有者直接回复请求者的转发次数
+        int fourHopForwards;        // 经归属节点中转的转发次数
+        int migratoryDetections;    // 检测为迁移块的次数
+        int migratoryGrants;        // 读缺失直接授予独占的次数
+        int upgradesSaved;          // 因迁移授予而省去的升级缺失
+        int migratoryReverts;       // 迁移模式被打破而回退的次数
+        
+        String summary() {
+            return String.format("转发:%s 事务:%d 消息:%d 平均关键路径:%.2f跳 三跳:%d 四跳:%d | 迁移优化:%s 检测:%d 授予:%d 省去升级缺失:%d 回退:%d",
+                forwardingPolicy, transactions, messages, transactions == 0 ? 0 : (double) criticalHops / transactions,
+                threeHopForwards, fourHopForwards, migratoryEnabled ? "开" : "关",
+                migratoryDetections, migratoryGrants, upgradesSaved, migratoryReverts);
+        }
+    }
+    
+    /*
+     * 存储放置统计：发往归属节点的访问中本地与远程的比例，以及页迁移的开销
+     */
+    static class PlacementStats {
+        int localAccesses;          // 请求者即归属节点的目录访问
+        int remoteAccesses;         // 需要跨节点访问归属节点的目录访问
+        int migrations;             // 页迁移次数
+        int migratedBlocks;         // 随页迁移搬运的存储块数
+        int migratedEntries;        // 随页迁移搬运的目录项数
+        
+        // 迁移开销：每个存储块和目录项各一条消息
+        int migrationMessages() { return migratedBlocks + migratedEntries; }
+        
+        String summary() {
+            int total = localAccesses + remoteAccesses;
+            return String.format("放置:%s 本地访问:%d 远程访问:%d (远程%.0f%%) 页迁移:%d 搬运块:%d 搬运目录项:%d 迁移消息:%d",
+                placementPolicy, localAccesses, remoteAccesses, total == 0 ? 0 : 100.0 * remoteAccesses / total,
+                migrations, migratedBlocks, migratedEntries, migrationMessages());
+        }
+    }
+    
+    /*
+     * 稀疏目录：容量固定的组相联目录缓存，组内LRU替换
+     * 组满时替换出的目录项由仿真器强制作废或召回其全部缓存副本
+     */
+    static class SparseDirectory {
+        final int sets;             // 组数
+        final int ways;             // 相联度
+        private final List<LinkedHashMap<String, DirectoryEntry>> entries = new ArrayList<>();
+        int evictions;              // 目录项替换次数
+        int evictionInvalidations;  // 目录替换引起的缓存副本作废次数
+        int evictionWriteBacks;     // 目录替换召回的脏块次数
+        int imprecisionInvalidations; // 编码不精确而发往未持有副本节点的作废次数
+        int pointerEvictions;       // dir-i-nb指针溢出时被强制作废的共享副本数
+        
+        SparseDirectory(int capacity, int ways) {
+            if (capacity % ways != 0) throw new IllegalArgumentException("目录项数必须是相联度的整数倍: " + capacity + "/" + ways);
+            if (Integer.bitCount(capacity / ways) != 1) throw new IllegalArgumentException("目录组数必须为2的幂: " + capacity / ways);
+            this.ways = ways;
+            this.sets = capacity / ways;
+            for (int i = 0; i < sets; i++) {
+                entries.add(new LinkedHashMap<>(16, 0.75f, true)); // 按访问顺序，最久未使用在前
+            }
+        }
+        
+        // 块地址所在的组
+        private LinkedHashMap<String, DirectoryEntry> setOf(String address) {
+            return entries.get(Integer.parseInt(address.substring(2, 7), 16) % sets);
+        }
+        
+        DirectoryEntry get(String address) {
+            return setOf(address).get(address);
+        }
+        
+        DirectoryEntry remove(String address) {
+            return setOf(address).remove(address);
+        }
+        
+        // 分配address时需要替换的目录项(组内最久未使用)，无需替换返回null
+        Map.Entry<String, DirectoryEntry> victimFor(String address) {
+            LinkedHashMap<String, DirectoryEntry> set = setOf(address);
+            if (set.containsKey(address) || set.size() < ways) return null;
+            return set.entrySet().iterator().next();
+        }
+        
+        DirectoryEntry allocate(String address) {
+            return setOf(address).computeIfAbsent(address, k -> new DirectoryEntry());
+        }
+        
+        int size() {
+            return entries.stream().mapToInt(Map::size).sum();
+        }
+        
+        int capacity() { return sets * ways; }
+        
+        // 按组顺序列出全部目录项(用于显示)
+        Map<String, DirectoryEntry> snapshot() {
+            Map<String, DirectoryEntry> all = new LinkedHashMap<>();
+            entries.forEach(all::putAll);
+            return all;
+        }
+        
+        // 每项硬件位数：标记(20位块号去掉组号位，组数不是2的幂时不能省去) + 2位状态 + 共享者编码
+        int entryBits(int nodes) {
+            int indexBits = Integer.bitCount(sets) == 1 ? Integer.numberOfTrailingZeros(sets) : 0;
+            return 20 - indexBits + 2 + sharerBits(nodes);
+        }
+        
+        int footprintBytes() {
+            return (capacity() * entryBits(NUM_CPU_NODES) + 7) / 8;
+        }
+        
+        String summary() {
+            return String.format("%d/%d项 %d路 %dB (替换:%d 强制作废:%d 召回写回:%d) %s 每项%.1fB(N=%d时%.1fB) 不精确作废:%d 指针替换:%d",
+                size(), capacity(), ways, footprintBytes(), evictions, evictionInvalidations, evictionWriteBacks,
+                encodingName(), entryBits(NUM_CPU_NODES) / 8.0, SCALE_NODES, entryBits(SCALE_NODES) / 8.0,
+                imprecisionInvalidations, pointerEvictions);
+        }
+    }
+    
+    /*
+     * 牺牲缓存(Victim Cache)：全相联，LRU替换
+     * 块进入牺牲缓存时节点仍在目录共享集中，只有被挤出时才通知归属节点
+     */
+    static class VictimCache {
+        final int capacity;
+        // 块地址(tag+index) -> 缓存块，按访问顺序排列(最久未使用在前)
+        final LinkedHashMap<String, CacheBlock> entries = new LinkedHashMap<>(16, 0.75f, true);
+        int avoidedMisses;          // 命中牺牲缓存而免去的目录访问次数
+        int avoidedWriteBacks;      // 脏块被重新取回而免去的写回次数
+
+        VictimCache(int capacity) { this.capacity = capacity; }
+
+        // 查找有效块，未命中返回null
+        CacheBlock lookup(String blockAddress) {
+            CacheBlock block = entries.get(blockAddress);
+            return block != null && block.state != CacheState.INVALID ? block : null;
+        }
+
+        CacheBlock remove(String blockAddress) {
+            return entries.remove(blockAddress);
+        }
+
+        // 放入被替换的块，返回被挤出的最久未使用块(无则返回null)
+        CacheBlock insert(CacheBlock block) {
+            entries.put(block.tag + block.index, block);
+            if (entries.size() <= capacity) return null;
+            Iterator<CacheBlock> it = entries.values().iterator();
+            CacheBlock evicted = it.next();
+            it.remove();
+            return evicted;
         }
     }
 
@@ -87,6 +310,9 @@ public class Directory extends JFrame {
         CacheState state;           // 缓存块状态(INVALID/SHARED/MODIFIED)
         String[] data;              // 缓存块数据(16字节)
         boolean isDirty = false;    // 脏位标记
+        boolean prefetched = false; // 由预取填入且尚未被需求访问使用
+        boolean migratoryGrant;     // 读缺失时按迁移块直接获得独占，尚未写入
+        long prefetchedAt;          // 预取填入时节点的访存计数
 
         public CacheBlock() {
             this.tag = "-";
@@ -103,9 +329,23 @@ public class Directory extends JFrame {
     private DefaultListModel<String> historyModel;  // 历史列表数据模型
     private JComboBox<String> cpuCombo;  // CPU节点选择下拉框
     private JTabbedPane directoryTabbedPane; // 目录状态标签页
+    private JLabel coherenceStatsLabel;  // 一致性消息统计显示
 
     // 系统状态
     private CPUNode[] cpuNodes;          // CPU节点数组
+    private CoherenceStats coherenceStats = new CoherenceStats(); // 一致性消息统计
+    // 缺失分类，影子Cache容量取片上总容量(直接映射Cache+牺牲缓存)
+    private MissClassifier missClassifier = new MissClassifier(CACHE_BLOCKS + VICTIM_ENTRIES);
+    private Atomics atomics = new Atomics(); // 原子操作与锁行争用统计
+    private AccessHeatmap heatmap;       // 访问热图
+    private JFrame heatmapFrame;         // 热图窗口(首次打开时创建)
+    private EnergyModel energy;          // 能耗记账
+    private javax.swing.Timer replayTimer; // 文件回放的分片定时器
+    private String accessAddress; // 正在处理的请求的原始地址(目录路径只传块地址)，用于记录作废者写的字
+    private PlacementStats placementStats = new PlacementStats(); // 存储放置统计
+    private Map<Integer, String> pageHome = new HashMap<>();      // first-touch/migrate：页号 -> 归属节点
+    private Map<Integer, int[]> pageCounters = new HashMap<>();   // migrate：页号 -> 各节点访问计数
+    private long cycle;                  // 仿真周期，每个请求推进一个周期
     private List<Map<String, Object>> requestHistory = new ArrayList<>(); // 请求历史记录
 
     /*
@@ -114,6 +354,9 @@ public class Directory extends JFrame {
     public Directory() {
         initUI();        // 初始化用户界面
         initSystem();    // 初始化系统状态
+        String[] nodeIds = Arrays.stream(cpuNodes).map(n -> n.id).toArray(String[]::new);
+        heatmap = new AccessHeatmap(nodeIds, nodeIds, CACHE_BLOCKS);
+        energy = new EnergyModel(nodeIds);
         renderUI();      // 渲染用户界面
     }
 
@@ -130,14 +373,10 @@ public class Directory extends JFrame {
         cpuNodes[1] = new CPUNode("CPU01");
         cpuNodes[2] = new CPUNode("CPU10");
         cpuNodes[3] = new CPUNode("CPU11");
-        
-        // 初始化所有节点的内存为全0
-        for (CPUNode node : cpuNodes) {
-            node.initMemory();
-        }
     }
 
     private void renderUI() {
+        SimEvents.RenderEvent event = SimEvents.render();
         // 顶部控制面板
         JPanel controlPanel = createControlPanel();
         
@@ -152,6 +391,8 @@ public class Directory extends JFrame {
         centerSplit.setDividerLocation(0.75);
         
         centerPanel.add(centerSplit, BorderLayout.CENTER);
+        coherenceStatsLabel = new JLabel(statsText());
+        centerPanel.add(coherenceStatsLabel, BorderLayout.SOUTH);
 
         // 底部历史记录和详情面板
         JSplitPane bottomPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
@@ -171,11 +412,15 @@ public class Directory extends JFrame {
         // 整体布局
         JPanel mainPanel = new JPanel(new BorderLayout(15, 15));
         mainPanel.setBorder(new EmptyBorder(15, 15, 15, 15));
-        mainPanel.add(controlPanel, BorderLayout.NORTH);
+        JPanel topPanel = new JPanel(new BorderLayout(15, 15));
+        topPanel.add(controlPanel, BorderLayout.CENTER);
+        topPanel.add(createScriptPanel(), BorderLayout.EAST);
+        mainPanel.add(topPanel, BorderLayout.NORTH);
         mainPanel.add(centerPanel, BorderLayout.CENTER);
         mainPanel.add(bottomPane, BorderLayout.SOUTH);
         
         add(mainPanel);
+        SimEvents.rendered(event, "Directory", "全部");
     }
     
     /*
@@ -204,6 +449,8 @@ public class Directory extends JFrame {
      * 更新目录显示
      */
     private void updateDirectoryTabs() {
+        SimEvents.RenderEvent event = SimEvents.render();
+        coherenceStatsLabel.setText(statsText());
         for (int i = 0; i < cpuNodes.length; i++) {
             CPUNode node = cpuNodes[i];
             JPanel dirPanel = (JPanel) directoryTabbedPane.getComponentAt(i);
@@ -212,8 +459,11 @@ public class Directory extends JFrame {
             
             model.setRowCount(0); // 清空现有数据
             
+            ((TitledBorder) dirPanel.getBorder()).setTitle(node.id + " 目录 " + node.directory.summary());
+            dirPanel.repaint();
+            
             // 添加目录条目
-            for (Map.Entry<String, DirectoryEntry> entry : node.directory.entrySet()) {
+            for (Map.Entry<String, DirectoryEntry> entry : node.directory.snapshot().entrySet()) {
                 String address = entry.getKey();
                 DirectoryEntry dirEntry = entry.getValue();
                 String sharingNodes = String.join(", ", dirEntry.sharingSet);
@@ -225,6 +475,7 @@ public class Directory extends JFrame {
                 });
             }
         }
+        SimEvents.rendered(event, "Directory", "目录");
     }
 
     /*
@@ -251,12 +502,12 @@ public class Directory extends JFrame {
         panel.add(new JLabel("操作类型:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 1;
-        JComboBox<String> operationCombo = new JComboBox<>(new String[]{"读", "写"});
+        JComboBox<String> operationCombo = new JComboBox<>(Atomics.OPERATIONS);
         panel.add(operationCombo, gbc);
 
         // 写入值
         gbc.gridx = 0; gbc.gridy = 2;
-        panel.add(new JLabel("写入值 (16字节十六进制):"), gbc);
+        panel.add(new JLabel("写入值/原子操作数:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 2;
         JTextField writeValueField = new JTextField("0000000000000000", 20);
@@ -271,22 +522,172 @@ public class Directory extends JFrame {
         cpuCombo = new JComboBox<>(cpuIds);
         panel.add(cpuCombo, gbc);
 
+        // 预取器选择(切换后各节点统计清零)
+        gbc.gridx = 0; gbc.gridy = 4;
+        panel.add(new JLabel("预取器:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 4;
+        JComboBox<String> prefetcherCombo = new JComboBox<>(Prefetcher.TYPES);
+        prefetcherCombo.setSelectedItem(prefetcherType);
+        prefetcherCombo.addActionListener(e -> changePrefetcher((String) prefetcherCombo.getSelectedItem()));
+        panel.add(prefetcherCombo, gbc);
+
+        // 内存模型选择(切回SC时先排空写缓冲)
+        gbc.gridx = 0; gbc.gridy = 5;
+        panel.add(new JLabel("内存模型:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 5;
+        JComboBox<String> modelCombo = new JComboBox<>(new String[]{"SC", "TSO"});
+        modelCombo.setSelectedItem(memoryModel);
+        modelCombo.addActionListener(e -> changeMemoryModel((String) modelCombo.getSelectedItem()));
+        panel.add(modelCombo, gbc);
+
+        // 独占块转发方式与迁移共享优化
+        gbc.gridx = 0; gbc.gridy = 6;
+        panel.add(new JLabel("独占块转发:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 6;
+        JPanel forwardingPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        JComboBox<String> forwardingCombo = new JComboBox<>(new String[]{"3-hop", "4-hop"});
+        forwardingCombo.setSelectedItem(forwardingPolicy);
+        forwardingCombo.addActionListener(e -> {
+            forwardingPolicy = (String) forwardingCombo.getSelectedItem();
+            updateDirectoryTabs();
+        });
+        JCheckBox migratoryCheck = new JCheckBox("迁移共享优化", migratoryEnabled);
+        migratoryCheck.addActionListener(e -> {
+            migratoryEnabled = migratoryCheck.isSelected();
+            updateDirectoryTabs();
+        });
+        forwardingPanel.add(forwardingCombo);
+        forwardingPanel.add(migratoryCheck);
+        panel.add(forwardingPanel, gbc);
+
+        // 存储放置策略(归属节点改变，切换时重置系统)
+        gbc.gridx = 0; gbc.gridy = 7;
+        panel.add(new JLabel("存储放置:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 7;
+        JComboBox<String> placementCombo = new JComboBox<>(PLACEMENT_POLICIES);
+        placementCombo.setSelectedItem(placementPolicy);
+        placementCombo.addActionListener(e -> {
+            placementPolicy = (String) placementCombo.getSelectedItem();
+            resetSystem();
+        });
+        panel.add(placementCombo, gbc);
+
         // 按钮
-        gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 2;
+        gbc.gridx = 0; gbc.gridy = 8; gbc.gridwidth = 2;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton executeBtn = new JButton("执行请求");
         JButton resetBtn = new JButton("重置系统");
+        JButton missBtn = new JButton("缺失分类");
+        JButton atomicBtn = new JButton("锁行争用");
+        JButton heatmapBtn = new JButton("访问热图");
+        JButton energyBtn = new JButton("能耗");
         
         executeBtn.addActionListener(e -> processRequest(addressField, operationCombo, writeValueField));
         resetBtn.addActionListener(e -> resetSystem());
+        missBtn.addActionListener(e -> showMissReport());
+        atomicBtn.addActionListener(e -> showAtomicReport());
+        heatmapBtn.addActionListener(e -> showHeatmap());
+        energyBtn.addActionListener(e -> showEnergyReport());
         
         buttonPanel.add(executeBtn);
         buttonPanel.add(resetBtn);
+        buttonPanel.add(missBtn);
+        buttonPanel.add(atomicBtn);
+        buttonPanel.add(heatmapBtn);
+        buttonPanel.add(energyBtn);
         panel.add(buttonPanel, gbc);
 
         return panel;
     }
 
+    /*
+     * 创建批量脚本面板：每行一条请求，一次执行全部并只刷新一次界面
+     */
+    private JPanel createScriptPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(new TitledBorder("批量脚本 (每行: CPU节点 读/写/原子操作 地址 [写入值/操作数])"));
+        
+        JTextArea scriptArea = new JTextArea("CPU00 读 0x000120\nCPU01 写 0x000120 0123456789ABCDEF\n", 8, 40);
+        panel.add(new JScrollPane(scriptArea), BorderLayout.CENTER);
+        
+        // 锁模板：按所选锁算法生成各CPU交替执行的脚本
+        JComboBox<String> lockCombo = new JComboBox<>(LockWorkloads.KINDS);
+        JButton lockBtn = new JButton("生成");
+        lockBtn.addActionListener(e -> scriptArea.setText(LockWorkloads.script((String) lockCombo.getSelectedItem(),
+            Arrays.stream(cpuNodes).map(n -> n.id).toArray(String[]::new))));
+        JButton runBtn = new JButton("执行脚本");
+        runBtn.addActionListener(e -> runScript(scriptArea.getText()));
+        JButton replayBtn = new JButton("回放文件");
+        replayBtn.addActionListener(e -> replayFile());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(new JLabel("锁模板:"));
+        buttonPanel.add(lockCombo);
+        buttonPanel.add(lockBtn);
+        buttonPanel.add(runBtn);
+        buttonPanel.add(replayBtn);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        return panel;
+    }
+    
+    /*
+     * 解析脚本文本(忽略空行和#注释)并批量执行
+     */
+    private void runScript(String script) {
+        List<Access> accesses = parseScript(Arrays.asList(script.split("\\R")));
+        if (accesses != null) processBatch(accesses);
+    }
+
+    // 逐行解析脚本，出错时提示行号并返回null
+    private List<Access> parseScript(List<String> lines) {
+        List<Access> accesses = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                accesses.add(Access.parse(line));
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "第" + (i + 1) + "行: " + ex.getMessage());
+                return null;
+            }
+        }
+        return accesses;
+    }
+
+    /*
+     * 回放脚本文件：按时间分片执行，每片之间让出事件分派线程，热图在回放过程中按帧率刷新
+     */
+    private void replayFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        List<Access> accesses;
+        try {
+            accesses = parseScript(java.nio.file.Files.readAllLines(chooser.getSelectedFile().toPath()));
+        } catch (java.io.IOException ex) {
+            JOptionPane.showMessageDialog(this, "读取失败: " + ex.getMessage());
+            return;
+        }
+        if (accesses == null || !validateBatch(accesses)) return;
+        if (replayTimer != null) replayTimer.stop();
+
+        showHeatmap();
+        SimEvents.RequestEvent request = new SimEvents.RequestEvent();
+        request.begin();
+        Iterator<Access> remaining = accesses.iterator();
+        replayTimer = new javax.swing.Timer(1, null);
+        replayTimer.addActionListener(e -> {
+            long deadline = System.nanoTime() + REPLAY_SLICE_NANOS;
+            while (remaining.hasNext() && System.nanoTime() < deadline) executeTraced(remaining.next());
+            if (remaining.hasNext()) return;
+            replayTimer.stop();
+            finishBatch(request, accesses.size());
+        });
+        replayTimer.start();
+    }
+    
     /*
      * 创建CPU节点显示面板
      */
@@ -298,7 +699,7 @@ public class Directory extends JFrame {
         // 为每个CPU节点创建一个面板
         for (CPUNode node : cpuNodes) {
             JPanel cpuPanel = new JPanel(new BorderLayout());
-            cpuPanel.setBorder(new TitledBorder(node.id));
+            cpuPanel.setBorder(new TitledBorder(nodeTitle(node)));
             
             JTable table = new JTable(createCacheTableModel(node));            
             table.setRowHeight(25);
@@ -308,6 +709,7 @@ public class Directory extends JFrame {
             table.getColumnModel().getColumn(3).setPreferredWidth(200);
             
             cpuPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+            cpuPanel.add(createBufferPanel(node), BorderLayout.SOUTH);
             panel.add(cpuPanel);
         }
         
@@ -337,19 +739,214 @@ public class Directory extends JFrame {
         };
     }
     
+    // 节点面板标题，启用预取时附带预取统计
+    private String nodeTitle(CPUNode node) {
+        if (node.prefetcher instanceof Prefetcher.None) return node.id;
+        return node.id + "  " + node.prefetchStats.summary(node.prefetcher);
+    }
+    
+    // 节点下方的牺牲缓存、写缓冲与MSHR面板
+    private JPanel createBufferPanel(CPUNode node) {
+        JPanel panel = new JPanel(new GridLayout(1, 3, 5, 5));
+        panel.add(createVictimPanel(node));
+        panel.add(createStoreBufferPanel(node));
+        panel.add(createMshrPanel(node));
+        return panel;
+    }
+    
+    /*
+     * 创建写缓冲显示面板，标题中显示合并、转发、满停顿与排空延迟
+     */
+    private JPanel createStoreBufferPanel(CPUNode node) {
+        StoreBuffer storeBuffer = node.storeBuffer;
+        String[] columns = {"地址", "写入值", "合并"};
+        Object[][] data = new Object[storeBuffer.entries.size()][3];
+        int row = 0;
+        for (StoreBuffer.Entry entry : storeBuffer.entries) {
+            data[row][0] = entry.address;
+            data[row][1] = entry.value;
+            data[row][2] = entry.coalesced;
+            row++;
+        }
+        
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+        
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(storeBuffer.summary()));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
+    /*
+     * 创建MSHR显示面板，列出在途的块及数据到达前的剩余周期
+     */
+    private JPanel createMshrPanel(CPUNode node) {
+        MissStatusRegisters mshr = node.mshr;
+        String[] columns = {"块地址", "操作", "剩余周期", "合并"};
+        Object[][] data = new Object[mshr.entries.size()][4];
+        int row = 0;
+        for (MissStatusRegisters.Entry entry : mshr.entries) {
+            data[row][0] = "0X" + entry.blockAddress + "0";
+            data[row][1] = entry.write ? "写" : "读";
+            data[row][2] = Math.max(0, entry.readyAt - cycle);
+            data[row][3] = entry.merged;
+            row++;
+        }
+
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(mshr.summary()));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+    
+    /*
+     * 创建牺牲缓存显示面板，标题中显示免去的缺失与写回次数
+     */
+    private JPanel createVictimPanel(CPUNode node) {
+        VictimCache victimCache = node.victimCache;
+        String[] columns = {"块地址", "状态", "数据 (16字节)"};
+        Object[][] data = new Object[victimCache.entries.size()][3];
+        int row = 0;
+        for (CacheBlock block : victimCache.entries.values()) {
+            data[row][0] = block.tag + block.index;
+            data[row][1] = block.state.getAbbr();
+            data[row][2] = String.join("", block.data);
+            row++;
+        }
+        
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+        
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(String.format("牺牲缓存 %d项 (免缺失:%d 免写回:%d)",
+            victimCache.capacity, victimCache.avoidedMisses, victimCache.avoidedWriteBacks)));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+    
     /*
      * 处理内存请求
      */
     private void processRequest(JTextField addressField, JComboBox<String> operationCombo, JTextField writeValueField) {
-        String address = addressField.getText().toUpperCase();
-        String operation = (String) operationCombo.getSelectedItem();
-        String writeValue = writeValueField.getText().toUpperCase();
-        String targetCpuId = (String) cpuCombo.getSelectedItem();
-        CPUNode targetNode = getTargetNode(targetCpuId);
+        processBatch(Collections.singletonList(new Access(
+            (String) cpuCombo.getSelectedItem(),
+            (String) operationCombo.getSelectedItem(),
+            addressField.getText().toUpperCase(),
+            writeValueField.getText().toUpperCase())));
+    }
+    
+    /*
+     * 批量处理访存请求：先统一校验，再依次执行，最后只刷新一次界面
+     */
+    public void processBatch(List<Access> accesses) {
+        if (!validateBatch(accesses)) return;
+        SimEvents.RequestEvent request = new SimEvents.RequestEvent();
+        request.begin();
+        for (Access access : accesses) executeTraced(access);
+        finishBatch(request, accesses.size());
+    }
+
+    // 校验全部请求，出错时提示并返回false
+    private boolean validateBatch(List<Access> accesses) {
+        Set<String> cpuIds = new HashSet<>();
+        for (CPUNode node : cpuNodes) cpuIds.add(node.id);
+        for (int i = 0; i < accesses.size(); i++) {
+            Access access = accesses.get(i);
+            String error = cpuIds.contains(access.cpuId) ? access.validate() : "目标节点不存在";
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, accesses.size() > 1 ? "第" + (i + 1) + "条请求: " + error : error);
+                return false;
+            }
+        }
+        return true;
+    }
 
-        if (!validateInput(address, operation, writeValue)) return;
+    // 执行一条请求并记录JFR访存事件
+    private void executeTraced(Access access) {
+        SimEvents.AccessEvent event = new SimEvents.AccessEvent();
+        event.begin();
+        executeAccess(access);
+        if (event.shouldCommit()) {
+            event.simulator = "Directory";
+            event.cpu = access.cpuId;
+            event.address = access.address;
+            event.operation = access.operation;
+            event.state = stateOf(getTargetNode(access.cpuId), access.address);
+            event.commit();
+        }
+    }
+
+    // 一批请求执行完后刷新界面并提交JFR请求事件
+    private void finishBatch(SimEvents.RequestEvent request, int requests) {
+        updateHistoryList();
+        renderCPUNodes();
+        updateDirectoryTabs();
+        if (request.shouldCommit()) {
+            request.simulator = "Directory";
+            request.requests = requests;
+            request.commit();
+        }
+    }
+
+    // 缺失计入热图：该组的缺失热度，以及发往归属节点的流量
+    private void heatmapMiss(CPUNode node, CPUNode homeNode, int cacheIndex) {
+        heatmap.miss(indexOf(node), cacheIndex);
+        heatmap.traffic(indexOf(node), indexOf(homeNode));
+    }
+
+    private int indexOf(CPUNode node) {
+        return Arrays.asList(cpuNodes).indexOf(node);
+    }
+
+    /*
+     * 打开访问热图窗口(非模态，可在执行请求与回放时保持打开)
+     */
+    private void showHeatmap() {
+        if (heatmapFrame == null) {
+            heatmapFrame = new JFrame("访问热图 (Directory)");
+            heatmapFrame.add(heatmap);
+            heatmapFrame.pack();
+        }
+        heatmapFrame.setVisible(true);
+    }
+    
+    // 节点中该地址所在块的状态(Cache或牺牲缓存)，用于JFR事件
+    private String stateOf(CPUNode node, String address) {
+        CacheBlock block = findBlock(node, address);
+        return block.tag.equals(address.substring(2, 6)) ? block.state.getAbbr() : CacheState.INVALID.getAbbr();
+    }
+    
+    /*
+     * 执行一次已校验的访存请求(不刷新界面)
+     */
+    private void executeAccess(Access access) {
+        String address = access.address;
+        String operation = access.operation;
+        String writeValue = access.writeValue;
+        String targetCpuId = access.cpuId;
+        CPUNode targetNode = getTargetNode(targetCpuId);
 
-        // 解析地址，确定归属节点
+        // 解析地址，确定归属节点(首次访问的页在此确定归属)
+        touchPage(address, targetNode);
         String ownerNodeId = getMemoryOwner(address);
         CPUNode ownerNode = getTargetNode(ownerNodeId);
         
@@ -358,29 +955,174 @@ public class Directory extends JFrame {
         String index = address.substring(6, 7);  
         int cacheIndex = Integer.parseInt(index, 16); 
 
+        // 后台排空各节点写缓冲
+        cycle++;
+        heatmap.tick();
+        for (CPUNode node : cpuNodes) node.mshr.advance(cycle);
+        drainStoreBuffers();
+        boolean atomic = Atomics.isAtomic(operation);
+        if (atomic) {
+            // 原子操作兼作内存屏障：先提交本节点写缓冲中的全部写
+            while (!targetNode.storeBuffer.entries.isEmpty()) {
+                commitStore(targetNode, targetNode.storeBuffer.poll());
+            }
+        }
+        
+        if (!atomic && memoryModel.equals("TSO")) {
+            StoreBuffer storeBuffer = targetNode.storeBuffer;
+            if (operation.equals("写")) {
+                // 写进入写缓冲后立即退休，缓冲满时停顿到最老一项提交
+                while (!storeBuffer.offer(address, writeValue, cycle)) {
+                    storeBuffer.fullStalls++;
+                    commitStore(targetNode, storeBuffer.poll());
+                }
+                recordRequest(address, operation, targetCpuId, false, "写缓冲");
+                return;
+            }
+            if (storeBuffer.forward(address) != null) {
+                // 读到本节点尚未提交的写，直接转发
+                targetNode.accessCount++;
+                energy.access(indexOf(targetNode));
+                recordRequest(address, operation, targetCpuId, true, "写缓冲转发");
+                return;
+            }
+        }
+
         // 实际判断缓存命中/缺失
         boolean cacheHit = checkCacheHit(targetNode, tag, cacheIndex);
+        // 缺失时先查找牺牲缓存，命中则无需访问目录
+        boolean victimHit = !cacheHit && swapFromVictimCache(targetNode, tag + index, cacheIndex);
+        cacheHit = cacheHit || victimHit;
         
+        // 原子操作按读或写进入目录协议
+        String outcome = null;
+        if (atomic) {
+            Atomics.Result result = atomics.execute(targetCpuId, operation, address, writeValue,
+                coherentData(targetNode, ownerNode, address), cacheHit);
+            outcome = result.text;
+            if (!result.performed) {
+                // SC预约已失效：直接失败，不访问目录
+                recordRequest(address, operation, targetCpuId, cacheHit, outcome);
+                return;
+            }
+            operation = result.writes ? "写" : "读";
+            writeValue = result.writeValue;
+        } else {
+            atomics.access(targetCpuId, address, operation.equals("写"), cacheHit);
+        }
+        
+        // 非阻塞Cache：归属节点在远端的缺失延迟更长
+        String mshrNote = trackMiss(targetNode, address, operation.equals("写"), cacheHit,
+            ownerNode == targetNode ? MSHR_LATENCY : MSHR_REMOTE_LATENCY);
+
         // 记录请求历史
-        recordRequest(address, operation, targetCpuId, cacheHit);
+        MissClassifier.MissType missType = missClassifier.access(targetCpuId, address, cacheHit, operation.equals("写"));
+        if (missType != null) {
+            SimEvents.miss("Directory", targetCpuId, address, operation.equals("写"), missType);
+            heatmapMiss(targetNode, ownerNode, cacheIndex);
+        }
+        String source = victimHit ? "牺牲缓存" : missType != null ? "缺失(" + missType.label + ")" : null;
+        if (outcome != null) source = source == null ? outcome : source + " " + outcome;
+        if (mshrNote != null) source = source == null ? mshrNote : source + " " + mshrNote;
+        // 合并到在途MSHR的访问数据尚未到达，显示为缺失
+        recordRequest(address, access.operation, targetCpuId, cacheHit && !MSHR_MERGED.equals(mshrNote), source);
+        accessAddress = address;
         
-        // 处理请求
+        // 处理请求(目录以16字节对齐的块地址为键)
+        targetNode.accessCount++;
+        energy.access(indexOf(targetNode));
+        String blockAddress = address.substring(0, 7) + "0";
+        boolean homeAccess = countHomeAccess(targetNode, ownerNode, address, cacheIndex, cacheHit, operation.equals("写"));
         if (operation.equals("读")) {
-            handleReadRequest(targetNode, ownerNode, address, cacheIndex, cacheHit);
+            handleReadRequest(targetNode, ownerNode, blockAddress, cacheIndex, cacheHit);
         } else {
-            handleWriteRequest(targetNode, ownerNode, address, cacheIndex, writeValue, cacheHit);
+            handleWriteRequest(targetNode, ownerNode, blockAddress, cacheIndex, writeValue, cacheHit);
         }
-        
-        // 更新界面
-        renderCPUNodes();
-        updateDirectoryTabs();
+        trainPrefetcher(targetNode, cacheIndex, cacheHit);
+        if (homeAccess) considerMigration(address, ownerNode);
     }
 
+    /*
+     * 非阻塞Cache的时序：块已在途时合并为次级缺失，否则缺失分配MSHR(满时停顿，推进仿真周期)，命中即缺失下命中
+     * 返回历史记录中附加的说明，没有则返回null
+     */
+    private String trackMiss(CPUNode node, String address, boolean write, boolean cacheHit, int latency) {
+        MissStatusRegisters mshr = node.mshr;
+        if (cacheHit && mshr.lookup(address) == null) {
+            mshr.hit();
+            return null;
+        }
+        boolean merged = mshr.lookup(address) != null;
+        long stall = mshr.miss(address, write, cycle, latency);
+        cycle += stall;
+        if (merged) return MSHR_MERGED;
+        return stall > 0 ? "MSHR满停顿" + stall + "周期" : null;
+    }
+
+    // 每个节点后台提交已到期的写缓冲项
+    private void drainStoreBuffers() {
+        for (CPUNode node : cpuNodes) {
+            StoreBuffer storeBuffer = node.storeBuffer;
+            for (int i = 0; i < STORE_DRAIN_PER_CYCLE; i++) {
+                StoreBuffer.Entry oldest = storeBuffer.entries.peekFirst();
+                if (oldest == null || oldest.enqueuedAt >= cycle) break;
+                commitStore(node, storeBuffer.poll());
+            }
+        }
+    }
+    
+    /*
+     * 提交一项写缓冲：向归属节点目录获取所有权并作废共享副本，与SC模式下的写走相同路径
+     */
+    private void commitStore(CPUNode node, StoreBuffer.Entry entry) {
+        String address = entry.address;
+        String tag = address.substring(2, 6);
+        String index = address.substring(6, 7);
+        int cacheIndex = Integer.parseInt(index, 16);
+        boolean cacheHit = checkCacheHit(node, tag, cacheIndex) || swapFromVictimCache(node, tag + index, cacheIndex);
+        touchPage(address, node);
+        CPUNode ownerNode = getTargetNode(getMemoryOwner(address));
+        trackMiss(node, address, true, cacheHit, ownerNode == node ? MSHR_LATENCY : MSHR_REMOTE_LATENCY);
+        
+        node.accessCount++;
+        energy.access(indexOf(node));
+        MissClassifier.MissType missType = missClassifier.access(node.id, address, cacheHit, true);
+        if (missType != null) {
+            SimEvents.miss("Directory", node.id, address, true, missType);
+            heatmapMiss(node, ownerNode, cacheIndex);
+        }
+        atomics.access(node.id, address, true, cacheHit);
+        accessAddress = address;
+        boolean homeAccess = countHomeAccess(node, ownerNode, address, cacheIndex, cacheHit, true);
+        handleWriteRequest(node, ownerNode, address.substring(0, 7) + "0", cacheIndex, entry.value, cacheHit);
+        trainPrefetcher(node, cacheIndex, cacheHit);
+        if (homeAccess) considerMigration(address, ownerNode);
+        node.storeBuffer.retired(entry, cycle);
+    }
+    
     /*
      * 获取内存地址所属的节点
-     * 采用高位交叉编址方式，地址高2位决定节点
+     * high为原有的高位交叉编址(地址高2位决定节点)，block/page按块号/页号低位交叉，
+     * first-touch/migrate使用页的记录归属，尚未访问过的页按高位交叉显示
      */
     private String getMemoryOwner(String address) {
+        int value = Integer.parseInt(address.substring(2), 16);
+        switch (placementPolicy) {
+            case "block":
+                return cpuNodes[(value / BLOCK_SIZE) % NUM_CPU_NODES].id;
+            case "page":
+                return cpuNodes[(value / PAGE_SIZE) % NUM_CPU_NODES].id;
+            case "first-touch":
+            case "migrate":
+                String home = pageHome.get(value / PAGE_SIZE);
+                if (home != null) return home;
+                break;
+        }
+        return highOrderOwner(address);
+    }
+    
+    // 高位交叉编址：地址高2位决定节点
+    private String highOrderOwner(String address) {
         int highBits = Integer.parseInt(address.substring(2, 3), 16);
         String binaryStr = String.format("%4s", Integer.toBinaryString(highBits)).replace(' ', '0');
         
@@ -401,20 +1143,99 @@ public class Directory extends JFrame {
         return block.tag.equals(tag) && block.state != CacheState.INVALID;
     }
     
+    /*
+     * 在牺牲缓存中查找块，命中则与直接映射Cache中对应位置的块交换
+     */
+    private boolean swapFromVictimCache(CPUNode node, String blockAddress, int cacheIndex) {
+        VictimCache victimCache = node.victimCache;
+        CacheBlock victim = victimCache.lookup(blockAddress);
+        if (victim == null) return false;
+
+        victimCache.remove(blockAddress);
+        victimCache.avoidedMisses++;
+        if (victim.isDirty) victimCache.avoidedWriteBacks++; // 脏块留在片上，省去一次写回
+        handleCacheReplacement(node, cacheIndex);
+        node.cacheBlocks[cacheIndex] = victim;
+        return true;
+    }
+
+    /*
+     * 替换直接映射Cache中的块：被替换块移入牺牲缓存，
+     * 牺牲缓存挤出的块才真正离开本节点(更新目录并写回)
+     */
     private void handleCacheReplacement(CPUNode node, int cacheIndex) {
         CacheBlock blockToReplace = node.cacheBlocks[cacheIndex];
+        node.cacheBlocks[cacheIndex] = new CacheBlock();
+        
+        if (blockToReplace.state != CacheState.INVALID && !blockToReplace.tag.equals("-")) {
+            CacheBlock evicted = node.victimCache.insert(blockToReplace);
+            if (evicted != null) {
+                if (evicted.prefetched) node.prefetchStats.unusedEvicted++;
+                releaseBlock(node, evicted);
+            }
+        }
+    }
+    
+    /*
+     * 训练预取器并发出预取：需求缺失或首次命中预取块时触发
+     */
+    private void trainPrefetcher(CPUNode node, int cacheIndex, boolean cacheHit) {
+        CacheBlock block = node.cacheBlocks[cacheIndex];
+        Prefetcher.Stats stats = node.prefetchStats;
+        boolean trigger = !cacheHit;
+        if (block.prefetched) {
+            block.prefetched = false;
+            stats.useful++;
+            stats.leadDistance += node.accessCount - block.prefetchedAt;
+            trigger = true;
+        } else if (!cacheHit) {
+            stats.demandMisses++;
+        }
+        if (!trigger) return;
         
+        for (int blockNumber : node.prefetcher.onMiss(Integer.parseInt(block.tag + block.index, 16))) {
+            prefetchBlock(node, blockNumber);
+        }
+    }
+    
+    /*
+     * 预取一个块：作为读缺失发往归属节点目录，与需求读走相同路径
+     */
+    private void prefetchBlock(CPUNode node, int blockNumber) {
+        String blockAddress = String.format("%05X", blockNumber);
+        int cacheIndex = blockNumber & 0xF;
+        if (checkCacheHit(node, blockAddress.substring(0, 4), cacheIndex)
+                || node.victimCache.lookup(blockAddress) != null) return;
+        
+        String address = "0X" + blockAddress + "0";
+        touchPage(address, node);
+        CPUNode ownerNode = getTargetNode(getMemoryOwner(address));
+        // 没有空闲MSHR时丢弃
+        if (!node.mshr.prefetch(address, cycle, ownerNode == node ? MSHR_LATENCY : MSHR_REMOTE_LATENCY)) return;
+        DirectoryEntry dirEntry = ownerNode.directory.get(address);
+        if (dirEntry != null && dirEntry.state == DirectoryState.EXCLUSIVE) {
+            node.prefetchStats.downgrades++; // 独占节点将被迫降级为共享
+        }
+        chargeDirectoryRequest(node, ownerNode);
+        handleReadRequest(node, ownerNode, address, cacheIndex, false);
+        
+        CacheBlock block = node.cacheBlocks[cacheIndex];
+        block.prefetched = true;
+        block.prefetchedAt = node.accessCount;
+        node.prefetchStats.issued++;
+    }
+    
+    // 块离开节点：通知归属节点的目录，MODIFIED块写回存储器
+    private void releaseBlock(CPUNode node, CacheBlock blockToReplace) {
         // 如果要替换的块是有效的（非INVALID状态）
         if (blockToReplace.state != CacheState.INVALID && !blockToReplace.tag.equals("-")) {
-            // 重建原始内存地址：tag + index + "0" (16字节对齐)
-            String originalAddress = "0X" + blockToReplace.tag + 
-                                   Integer.toHexString(cacheIndex) + "0";
+            // 重建原始内存地址：tag + index + offset
+            String originalAddress = "0X" + blockToReplace.tag + blockToReplace.index + blockToReplace.offset;
             System.out.println("replaceBlockAddress："+originalAddress);
             CPUNode ownerNode = getTargetNode(getMemoryOwner(originalAddress));
             DirectoryEntry dirEntry = ownerNode.directory.get(originalAddress);
             
             if (dirEntry != null) {
-            	//System.out.println("222");
                 // 如果是SHARED状态
                 if (blockToReplace.state == CacheState.SHARED) {
                     // 从共享集中删除该节点
@@ -422,15 +1243,16 @@ public class Directory extends JFrame {
                     
                     // 如果共享集变空，删除目录项
                     if (dirEntry.sharingSet.isEmpty()) {
+                        SimEvents.directoryTransition(node.id, originalAddress, ownerNode.id, dirEntry.state.getAbbr(), DirectoryState.UNCACHED.getAbbr());
                         ownerNode.directory.remove(originalAddress);
                     }
                 }
                 // 如果是MODIFIED状态（对应目录中的EXCLUSIVE）
                 else if (blockToReplace.state == CacheState.MODIFIED) {
                     // 写回存储器
-                	//System.out.println("111");
-                    writeBackToPrivateMemory(originalAddress, node);
+                    writeBackToPrivateMemory(originalAddress, node, blockToReplace);
                     // 删除目录项
+                    SimEvents.directoryTransition(node.id, originalAddress, ownerNode.id, dirEntry.state.getAbbr(), DirectoryState.UNCACHED.getAbbr());
                     ownerNode.directory.remove(originalAddress);
                     System.out.println("替换块：更新目录表");
                 }
@@ -439,7 +1261,253 @@ public class Directory extends JFrame {
             // 重置被替换的缓存块状态
             blockToReplace.state = CacheState.INVALID;
         }
-        updateDirectoryTabs(); // 更新目录状态显示
+    }
+    
+    /*
+     * 在归属节点目录中查找或分配目录项，组满时先替换最久未使用项并召回其缓存副本
+     */
+    private DirectoryEntry allocateDirectoryEntry(CPUNode ownerNode, String address) {
+        SparseDirectory directory = ownerNode.directory;
+        Map.Entry<String, DirectoryEntry> victim = directory.victimFor(address);
+        if (victim != null) {
+            String victimAddress = victim.getKey();
+            DirectoryEntry victimEntry = directory.remove(victimAddress);
+            directory.evictions++;
+            recallCopies(ownerNode, victimAddress, victimEntry);
+        }
+        return directory.allocate(address);
+    }
+    
+    // 目录项被替换：独占副本先写回归属节点，所有副本随后作废
+    private void recallCopies(CPUNode ownerNode, String address, DirectoryEntry entry) {
+        SparseDirectory directory = ownerNode.directory;
+        for (String nodeId : invalidationTargets(entry, null)) {
+            if (!entry.sharingSet.contains(nodeId)) directory.imprecisionInvalidations++;
+            CPUNode node = getTargetNode(nodeId);
+            CacheBlock block = findBlock(node, address);
+            if (!block.tag.equals(address.substring(2, 6)) || block.state == CacheState.INVALID) continue;
+            
+            if (block.state == CacheState.MODIFIED && block.isDirty) {
+                writeBackToPrivateMemory(address, node, block);
+                directory.evictionWriteBacks++;
+            }
+            invalidateCacheBlock(address, node);
+            chargeInvalidation(ownerNode, node, ownerNode);
+            directory.evictionInvalidations++;
+        }
+    }
+    
+    /*
+     * 记录新的共享者：dir-i-b超出指针数时置溢出位，coarse置所在组的位，
+     * dir-i-nb超出指针数时替换最老的指针并作废该节点的副本
+     */
+    private void addSharer(CPUNode ownerNode, DirectoryEntry dirEntry, String address, String nodeId) {
+        dirEntry.sharingSet.add(nodeId);
+        switch (SHARER_ENCODING) {
+            case "dir-i-b":
+                if (dirEntry.sharingSet.size() > DIRECTORY_POINTERS) dirEntry.overflow = true;
+                break;
+            case "coarse":
+                dirEntry.groupBits |= 1 << (getNodeIndex(nodeId) / COARSE_GROUP);
+                break;
+            case "dir-i-nb":
+                Iterator<String> it = dirEntry.sharingSet.iterator();
+                while (dirEntry.sharingSet.size() > DIRECTORY_POINTERS && it.hasNext()) {
+                    String evictedId = it.next();
+                    if (evictedId.equals(nodeId)) continue;
+                    it.remove();
+                    CPUNode evictedNode = getTargetNode(evictedId);
+                    CacheBlock block = findBlock(evictedNode, address);
+                    if (block.tag.equals(address.substring(2, 6)) && block.isDirty) {
+                        writeBackToPrivateMemory(address, evictedNode, block);
+                    }
+                    invalidateCacheBlock(address, evictedNode);
+                    chargeInvalidation(ownerNode, evictedNode, ownerNode);
+                    ownerNode.directory.pointerEvictions++;
+                }
+                break;
+        }
+    }
+    
+    /*
+     * 按共享者编码确定作废消息的目标节点(不含exclude)，编码不精确时目标是实际共享者的超集
+     */
+    private List<String> invalidationTargets(DirectoryEntry dirEntry, String excludeId) {
+        List<String> targets = new ArrayList<>();
+        for (CPUNode node : cpuNodes) {
+            if (node.id.equals(excludeId)) continue;
+            boolean target;
+            switch (SHARER_ENCODING) {
+                case "dir-i-b":
+                    target = dirEntry.overflow || dirEntry.sharingSet.contains(node.id);
+                    break;
+                case "coarse":
+                    target = (dirEntry.groupBits & (1 << (getNodeIndex(node.id) / COARSE_GROUP))) != 0;
+                    break;
+                default:
+                    target = dirEntry.sharingSet.contains(node.id);
+            }
+            if (target) targets.add(node.id);
+        }
+        return targets;
+    }
+    
+    // 作废除写者以外的所有共享副本，统计因编码不精确多发的作废，返回作废消息数
+    private int invalidateSharers(CPUNode ownerNode, DirectoryEntry dirEntry, String address, CPUNode targetNode) {
+        List<String> targets = invalidationTargets(dirEntry, targetNode.id);
+        for (String nodeId : targets) {
+            if (!dirEntry.sharingSet.contains(nodeId)) ownerNode.directory.imprecisionInvalidations++;
+            noteSharingInvalidation(address, getTargetNode(nodeId));
+            invalidateCacheBlock(address, getTargetNode(nodeId));
+            // 3-hop时确认直接发给请求者，4-hop时由归属节点收集
+            chargeInvalidation(ownerNode, getTargetNode(nodeId), forwardingPolicy.equals("3-hop") ? targetNode : ownerNode);
+        }
+        SimEvents.invalidation("Directory", targetNode.id, address, targets.size());
+        heatmap.invalidation(address, targets.size());
+        return targets.size();
+    }
+    
+    // 记录一次经过目录的事务
+    private void countTransaction(int criticalHops, int messages) {
+        coherenceStats.transactions++;
+        coherenceStats.criticalHops += criticalHops;
+        coherenceStats.messages += messages;
+    }
+    
+    /*
+     * 拥有者转发：3-hop时拥有者直接把数据发给请求者(并行通知归属节点)，
+     * 4-hop时数据先回到归属节点再转给请求者
+     */
+    private void countOwnerForward() {
+        if (forwardingPolicy.equals("3-hop")) {
+            coherenceStats.threeHopForwards++;
+            countTransaction(3, 4); // 请求、转发、数据，另有一条发往归属节点的修订消息不在关键路径上
+        } else {
+            coherenceStats.fourHopForwards++;
+            countTransaction(4, 4);
+        }
+    }
+    
+    // 作废k个副本：每个副本一条作废和一条确认，3-hop时确认直接发给请求者，4-hop时由归属节点收集
+    private void countInvalidation(int targets) {
+        if (targets == 0) {
+            countTransaction(2, 2);
+        } else {
+            countTransaction(forwardingPolicy.equals("3-hop") ? 3 : 4, 2 + 2 * targets);
+        }
+    }
+    
+    // 降级时把脏数据写回归属节点存储器，块保持有效
+    private void sharingWriteBack(String address, CPUNode node, CacheBlock block) {
+        if (!block.isDirty) return;
+        SimEvents.writeBack("Directory", node.id, address, block.state.getAbbr());
+        CPUNode homeNode = getTargetNode(getMemoryOwner(address));
+        homeNode.privateMemory.write(address, block.data);
+        chargeWriteBack(node, homeNode);
+        heatmap.traffic(indexOf(node), indexOf(homeNode));
+        block.isDirty = false;
+    }
+    
+    // first-touch/migrate：页第一次被访问时以访问节点为归属
+    private void touchPage(String address, CPUNode node) {
+        if (!placementPolicy.equals("first-touch") && !placementPolicy.equals("migrate")) return;
+        pageHome.putIfAbsent(Integer.parseInt(address.substring(2), 16) / PAGE_SIZE, node.id);
+    }
+    
+    /*
+     * 统计一次发往归属节点目录的访问(缺失或写共享块的升级)，本地命中不计；
+     * migrate策略下同时累加该页的访问计数。返回是否访问了归属节点
+     */
+    private boolean countHomeAccess(CPUNode requester, CPUNode ownerNode, String address, int cacheIndex,
+                                    boolean cacheHit, boolean write) {
+        if (cacheHit && !(write && requester.cacheBlocks[cacheIndex].state != CacheState.MODIFIED)) return false;
+        if (requester == ownerNode) placementStats.localAccesses++;
+        else placementStats.remoteAccesses++;
+        chargeDirectoryRequest(requester, ownerNode);
+        if (placementPolicy.equals("migrate")) {
+            int page = Integer.parseInt(address.substring(2), 16) / PAGE_SIZE;
+            pageCounters.computeIfAbsent(page, k -> new int[NUM_CPU_NODES])[getNodeIndex(requester.id)]++;
+        }
+        return true;
+    }
+    
+    // migrate：某远程节点的访问计数超过归属节点达到阈值时，把页迁往该节点
+    private void considerMigration(String address, CPUNode homeNode) {
+        if (!placementPolicy.equals("migrate")) return;
+        int page = Integer.parseInt(address.substring(2), 16) / PAGE_SIZE;
+        int[] counters = pageCounters.get(page);
+        int homeCount = counters[getNodeIndex(homeNode.id)];
+        for (CPUNode node : cpuNodes) {
+            if (node != homeNode && counters[getNodeIndex(node.id)] - homeCount >= MIGRATE_THRESHOLD) {
+                migratePage(page, homeNode, node);
+                return;
+            }
+        }
+    }
+    
+    /*
+     * 页迁移：该页的存储块和目录项从原归属节点搬到新归属节点，
+     * 新节点目录组满时按普通分配替换(召回被替换项的副本)
+     */
+    private void migratePage(int page, CPUNode oldHome, CPUNode newHome) {
+        pageHome.put(page, newHome.id);
+        pageCounters.remove(page);
+        placementStats.migrations++;
+        for (int offset = 0; offset < PAGE_SIZE; offset += BLOCK_SIZE) {
+            String blockAddress = String.format("0X%06X", page * PAGE_SIZE + offset);
+            if (oldHome.privateMemory.moveTo(blockAddress, newHome.privateMemory)) {
+                placementStats.migratedBlocks++;
+                energy.dramRead(indexOf(oldHome));
+                sendMessage(oldHome, newHome, DATA_MESSAGE_BYTES);
+                energy.dramWrite(indexOf(newHome));
+            }
+            DirectoryEntry entry = oldHome.directory.remove(blockAddress);
+            if (entry != null) {
+                DirectoryEntry moved = allocateDirectoryEntry(newHome, blockAddress);
+                moved.state = entry.state;
+                moved.sharingSet.addAll(entry.sharingSet);
+                moved.overflow = entry.overflow;
+                moved.groupBits = entry.groupBits;
+                moved.lastWriter = entry.lastWriter;
+                moved.migratory = entry.migratory;
+                placementStats.migratedEntries++;
+                sendMessage(oldHome, newHome, EnergyModel.HEADER_BYTES);
+                energy.directoryLookup(indexOf(newHome));
+            }
+        }
+    }
+    
+    // 两节点间的网络跳数：节点编号的二进制位看作超立方体坐标，跳数为不同的位数，本节点内为0
+    private int hops(CPUNode from, CPUNode to) {
+        return Integer.bitCount(getNodeIndex(from.id) ^ getNodeIndex(to.id));
+    }
+    
+    private void sendMessage(CPUNode from, CPUNode to, int bytes) {
+        energy.message(indexOf(from), hops(from, to), bytes);
+    }
+    
+    // 请求发往归属节点并查找目录
+    private void chargeDirectoryRequest(CPUNode requester, CPUNode homeNode) {
+        sendMessage(requester, homeNode, EnergyModel.HEADER_BYTES);
+        energy.directoryLookup(indexOf(homeNode));
+    }
+    
+    // 归属节点发出一条作废，副本所在节点作废Cache块并向ackNode确认
+    private void chargeInvalidation(CPUNode homeNode, CPUNode node, CPUNode ackNode) {
+        sendMessage(homeNode, node, EnergyModel.HEADER_BYTES);
+        energy.cacheAccess(indexOf(node));
+        sendMessage(node, ackNode, EnergyModel.HEADER_BYTES);
+    }
+    
+    // 脏块送回归属节点写入存储器
+    private void chargeWriteBack(CPUNode node, CPUNode homeNode) {
+        sendMessage(node, homeNode, DATA_MESSAGE_BYTES);
+        energy.dramWrite(indexOf(homeNode));
+    }
+    
+    // 节点编号(CPU10 -> 2)
+    private int getNodeIndex(String nodeId) {
+        return Integer.parseInt(nodeId.substring(3), 2);
     }
     
     /*
@@ -447,20 +1515,21 @@ public class Directory extends JFrame {
      */
     private void handleReadRequest(CPUNode targetNode, CPUNode ownerNode, 
                                  String address, int cacheIndex, boolean cacheHit) {
-        CacheBlock block = targetNode.cacheBlocks[cacheIndex];
         if (!cacheHit) {
         	handleCacheReplacement(targetNode, cacheIndex);
+        	CacheBlock block = targetNode.cacheBlocks[cacheIndex];
             // 缓存缺失处理
-            DirectoryEntry dirEntry = ownerNode.directory.computeIfAbsent(address, k -> new DirectoryEntry());
+            DirectoryEntry dirEntry = allocateDirectoryEntry(ownerNode, address);
             
             // 根据目录状态处理
             switch (dirEntry.state) {
                 case UNCACHED:
                     // 直接从私有存储器读取
-                    loadFromPrivateMemory(ownerNode, address, block);
-                    dirEntry.state = DirectoryState.SHARED;
-                    dirEntry.sharingSet.add(targetNode.id);
+                    loadFromPrivateMemory(ownerNode, targetNode, address, block);
+                    setDirectoryState(dirEntry, DirectoryState.SHARED, address, ownerNode, targetNode);
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     block.state = CacheState.SHARED;
+                    countTransaction(2, 2);
                     break;
                     
                 case SHARED:
@@ -468,18 +1537,41 @@ public class Directory extends JFrame {
                     String sharingNodeId = dirEntry.sharingSet.iterator().next();
                     CPUNode sharingNode = getTargetNode(sharingNodeId);
                     copyCacheBlock(address, sharingNode, targetNode);
-                    dirEntry.sharingSet.add(targetNode.id);
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     block.state = CacheState.SHARED;
+                    countTransaction(2, 2);
                     break;
                     
                 case EXCLUSIVE:
-                    // 从独占节点获取数据并将目录状态转变为共享
                     String exclusiveNodeId = dirEntry.sharingSet.iterator().next();
                     CPUNode exclusiveNode = getTargetNode(exclusiveNodeId);
+                    CacheBlock exclusiveBlock = findBlock(exclusiveNode, address);
                     copyCacheBlock(address, exclusiveNode, targetNode);
-                    exclusiveNode.cacheBlocks[getCacheIndex(address)].state = CacheState.SHARED;
-                    dirEntry.state = DirectoryState.SHARED;
-                    dirEntry.sharingSet.add(targetNode.id);
+                    countOwnerForward();
+                    if (dirEntry.migratory && exclusiveBlock.migratoryGrant) {
+                        // 拥有者获得迁移授予后没有写入，迁移模式被打破
+                        dirEntry.migratory = false;
+                        coherenceStats.migratoryReverts++;
+                    }
+                    if (migratoryEnabled && dirEntry.migratory) {
+                        // 迁移块：拥有权随数据整体移交，请求者随后的写不再需要升级
+                        noteSharingInvalidation(address, exclusiveNode);
+                        invalidateCacheBlock(address, exclusiveNode);
+                        setDirectoryState(dirEntry, DirectoryState.EXCLUSIVE, address, ownerNode, targetNode);
+                        dirEntry.clearSharers();
+                        addSharer(ownerNode, dirEntry, address, targetNode.id);
+                        block.state = CacheState.MODIFIED;
+                        block.isDirty = true;
+                        block.migratoryGrant = true;
+                        coherenceStats.migratoryGrants++;
+                        break;
+                    }
+                    // 从独占节点获取数据并将目录状态转变为共享，脏数据同时写回归属节点
+                    sharingWriteBack(address, exclusiveNode, exclusiveBlock);
+                    exclusiveBlock.state = CacheState.SHARED;
+                    exclusiveBlock.migratoryGrant = false;
+                    setDirectoryState(dirEntry, DirectoryState.SHARED, address, ownerNode, targetNode);
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     block.state = CacheState.SHARED;
                     break;
             }
@@ -492,31 +1584,30 @@ public class Directory extends JFrame {
     private void handleWriteRequest(CPUNode targetNode, CPUNode ownerNode, 
                                   String address, int cacheIndex, String writeValue, 
                                   boolean cacheHit) {
-        CacheBlock block = targetNode.cacheBlocks[cacheIndex];
-        DirectoryEntry dirEntry = ownerNode.directory.computeIfAbsent(address, k -> new DirectoryEntry());
+        DirectoryEntry dirEntry = allocateDirectoryEntry(ownerNode, address);
         if (!cacheHit) {
         	// 先处理可能的替换
             handleCacheReplacement(targetNode, cacheIndex);
+        }
+        CacheBlock block = targetNode.cacheBlocks[cacheIndex];
+        if (!cacheHit) {
             // 缓存缺失处理
             switch (dirEntry.state) {
                 case UNCACHED:
                     // 直接从私有存储器加载并修改
-                    loadFromPrivateMemory(ownerNode, address, block);
+                    loadFromPrivateMemory(ownerNode, targetNode, address, block);
                     block.state = CacheState.MODIFIED;
                     block.isDirty = true;
                     block.data = writeValue.split("");
-                    dirEntry.state = DirectoryState.EXCLUSIVE;
-                    dirEntry.sharingSet.add(targetNode.id);
+                    setDirectoryState(dirEntry, DirectoryState.EXCLUSIVE, address, ownerNode, targetNode);
+                    dirEntry.clearSharers();
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
+                    countTransaction(2, 2);
                     break;
                     
                 case SHARED:
                     // 作废所有共享副本
-                    for (String nodeId : dirEntry.sharingSet) {
-                        if (!nodeId.equals(targetNode.id)) {
-                            CPUNode node = getTargetNode(nodeId);
-                            invalidateCacheBlock(address, node);
-                        }
-                    }
+                    countInvalidation(invalidateSharers(ownerNode, dirEntry, address, targetNode));
                     // 从任一共享节点获取数据
                     String sharingNodeId = dirEntry.sharingSet.iterator().next();
                     CPUNode sharingNode = getTargetNode(sharingNodeId);
@@ -524,64 +1615,79 @@ public class Directory extends JFrame {
                     block.state = CacheState.MODIFIED;
                     block.isDirty = true;
                     block.data = writeValue.split("");
-                    dirEntry.state = DirectoryState.EXCLUSIVE;
-                    dirEntry.sharingSet.clear();
-                    dirEntry.sharingSet.add(targetNode.id);
+                    setDirectoryState(dirEntry, DirectoryState.EXCLUSIVE, address, ownerNode, targetNode);
+                    dirEntry.clearSharers();
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     break;
                     
                 case EXCLUSIVE:
                     // 写回当前独占副本并获取所有权
                     String exclusiveNodeId = dirEntry.sharingSet.iterator().next();
                     CPUNode exclusiveNode = getTargetNode(exclusiveNodeId);
+                    noteSharingInvalidation(address, exclusiveNode);
                     writeBackToPrivateMemory(address, exclusiveNode);
                     copyCacheBlock(address, exclusiveNode, targetNode);
+                    countOwnerForward();
                     block.state = CacheState.MODIFIED;
                     block.isDirty = true;
                     block.data = writeValue.split("");
-                    dirEntry.sharingSet.clear();
-                    dirEntry.sharingSet.add(targetNode.id);
+                    setDirectoryState(dirEntry, DirectoryState.EXCLUSIVE, address, ownerNode, targetNode);
+                    dirEntry.clearSharers();
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     break;
             }
         } else {
             // 缓存命中处理
             switch (dirEntry.state) {
                 case SHARED:
-                    // 作废所有共享副本
-                    for (String nodeId : dirEntry.sharingSet) {
-                        if (!nodeId.equals(targetNode.id)) {
-                            CPUNode node = getTargetNode(nodeId);
-                            invalidateCacheBlock(address, node);
-                        }
+                    // 升级：已有另一节点写过且共享者恰为两者时，判定为迁移块
+                    if (dirEntry.sharingSet.size() == 2 && dirEntry.lastWriter != null
+                            && !dirEntry.lastWriter.equals(targetNode.id)
+                            && dirEntry.sharingSet.contains(dirEntry.lastWriter) && !dirEntry.migratory) {
+                        dirEntry.migratory = true;
+                        coherenceStats.migratoryDetections++;
                     }
+                    // 作废所有共享副本
+                    countInvalidation(invalidateSharers(ownerNode, dirEntry, address, targetNode));
                     block.state = CacheState.MODIFIED;
                     block.isDirty = true;
                     block.data = writeValue.split("");
-                    dirEntry.state = DirectoryState.EXCLUSIVE;
-                    dirEntry.sharingSet.clear();
-                    dirEntry.sharingSet.add(targetNode.id);
+                    setDirectoryState(dirEntry, DirectoryState.EXCLUSIVE, address, ownerNode, targetNode);
+                    dirEntry.clearSharers();
+                    addSharer(ownerNode, dirEntry, address, targetNode.id);
                     break;
                     
                 case EXCLUSIVE:
                     // 已经是独占状态，直接更新
+                    if (block.migratoryGrant) {
+                        block.migratoryGrant = false;
+                        coherenceStats.upgradesSaved++;
+                    }
                     block.state = CacheState.MODIFIED;
                     block.isDirty = true;
                     block.data = writeValue.split("");
                     break;
             }
         }
+        dirEntry.lastWriter = targetNode.id;
     }
     
-    // 从私有存储器加载数据到缓存块
-    private void loadFromPrivateMemory(CPUNode ownerNode, String address, CacheBlock block) {
+    // 改变目录状态并记录转换事件(独占者之间移交所有权时前后状态相同)
+    private void setDirectoryState(DirectoryEntry dirEntry, DirectoryState state, String address,
+                                   CPUNode ownerNode, CPUNode targetNode) {
+        SimEvents.directoryTransition(targetNode.id, address, ownerNode.id, dirEntry.state.getAbbr(), state.getAbbr());
+        dirEntry.state = state;
+    }
+    
+    // 从归属节点的私有存储器加载数据到请求者的缓存块
+    private void loadFromPrivateMemory(CPUNode ownerNode, CPUNode targetNode, String address, CacheBlock block) {
     	 // 获取16字节对齐的块地址
         String blockAddress = address.substring(0, address.length()-1) + "0";
         
-        String[] blockData = ownerNode.privateMemory.computeIfAbsent(blockAddress, k -> {
-            String[] newBlock = new String[BLOCK_SIZE];
-            Arrays.fill(newBlock, "0");
-            return newBlock;
-        });
-        
+        String[] blockData = ownerNode.privateMemory.read(blockAddress);
+        energy.dramRead(indexOf(ownerNode));
+        sendMessage(ownerNode, targetNode, DATA_MESSAGE_BYTES);
+        energy.cacheAccess(indexOf(targetNode));
         
         // 设置缓存块信息
         block.tag = address.substring(2, 6);
@@ -594,19 +1700,22 @@ public class Directory extends JFrame {
     
     // 写回私有存储器
     private void writeBackToPrivateMemory(String address, CPUNode node) {
-    	int cacheIndex = getCacheIndex(address);
-        CacheBlock block = node.cacheBlocks[cacheIndex];
+        writeBackToPrivateMemory(address, node, findBlock(node, address));
+    }
+    
+    private void writeBackToPrivateMemory(String address, CPUNode node, CacheBlock block) {
         if (!block.isDirty) return;
         
         // 获取16字节对齐的块地址
         String blockAddress = address.substring(0, address.length()-1) + "0";
         
-        // 确保内存中有该块
-        String[] blockData = node.privateMemory.computeIfAbsent(blockAddress, 
-            k -> new String[BLOCK_SIZE]);
-        
+        // 确保归属节点的存储器中有该块
+        CPUNode homeNode = getTargetNode(getMemoryOwner(blockAddress));
         // 写回数据
-        System.arraycopy(block.data, 0, blockData, 0, BLOCK_SIZE);
+        homeNode.privateMemory.write(blockAddress, block.data);
+        chargeWriteBack(node, homeNode);
+        SimEvents.writeBack("Directory", node.id, blockAddress, block.state.getAbbr());
+        heatmap.traffic(indexOf(node), indexOf(homeNode));
         block.isDirty = false;
         
         // 输出信息
@@ -624,74 +1733,130 @@ public class Directory extends JFrame {
     // 复制缓存块数据
     private void copyCacheBlock(String address, CPUNode srcNode, CPUNode destNode) {
         int cacheIndex = getCacheIndex(address);
-        CacheBlock srcBlock = srcNode.cacheBlocks[cacheIndex];
+        CacheBlock srcBlock = findBlock(srcNode, address);
         CacheBlock destBlock = destNode.cacheBlocks[cacheIndex];
         
         destBlock.tag = srcBlock.tag;
         destBlock.index = srcBlock.index;
         destBlock.offset = srcBlock.offset;
         destBlock.data = srcBlock.data.clone();
+        
+        // 归属节点把请求转给提供者，提供者读出整块，3-hop时直接发给请求者，4-hop时经归属节点中转
+        CPUNode homeNode = getTargetNode(getMemoryOwner(address));
+        sendMessage(homeNode, srcNode, EnergyModel.HEADER_BYTES);
+        energy.cacheAccess(indexOf(srcNode));
+        if (forwardingPolicy.equals("3-hop")) {
+            sendMessage(srcNode, destNode, DATA_MESSAGE_BYTES);
+        } else {
+            sendMessage(srcNode, homeNode, DATA_MESSAGE_BYTES);
+            sendMessage(homeNode, destNode, DATA_MESSAGE_BYTES);
+        }
+        energy.cacheAccess(indexOf(destNode));
+    }
+    
+    /*
+     * 其他节点的请求作废了node中的有效副本，记入缺失分类(目录替换引起的作废不在此列)
+     * 作废的块就是当前请求的块时记下请求访问的字；预取等引起的其他块的作废只知道块地址
+     */
+    private void noteSharingInvalidation(String address, CPUNode node) {
+        CacheBlock block = findBlock(node, address);
+        if (block.tag.equals(address.substring(2, 6)) && block.state != CacheState.INVALID) {
+            boolean sameBlock = accessAddress != null && accessAddress.substring(2, 7).equals(address.substring(2, 7));
+            missClassifier.invalidate(node.id, sameBlock ? accessAddress : address);
+        }
     }
     
     // 作废缓存块
     private void invalidateCacheBlock(String address, CPUNode node) {
         int cacheIndex = getCacheIndex(address);
         CacheBlock block = node.cacheBlocks[cacheIndex];
-        block.state = CacheState.INVALID;
+        // 共享副本可能已被替换到牺牲缓存，只作废标记相同的块
+        if (block.tag.equals(address.substring(2, 6))) {
+            countUnusedPrefetchInvalidation(node, block);
+            block.state = CacheState.INVALID;
+        }
+        CacheBlock victim = node.victimCache.remove(address.substring(2, 7));
+        if (victim != null) countUnusedPrefetchInvalidation(node, victim);
         //block.tag = "-";
     }
     
+    // 未被使用的预取块收到作废：这次作废完全由预取引入
+    private void countUnusedPrefetchInvalidation(CPUNode node, CacheBlock block) {
+        if (block.prefetched && block.state != CacheState.INVALID) {
+            block.prefetched = false;
+            node.prefetchStats.unusedInvalidated++;
+        }
+    }
+    
+    // 查找节点中缓存该地址的块：先查直接映射Cache，再查牺牲缓存
+    private CacheBlock findBlock(CPUNode node, String address) {
+        CacheBlock block = node.cacheBlocks[getCacheIndex(address)];
+        if (block.tag.equals(address.substring(2, 6))) return block;
+        CacheBlock victim = node.victimCache.entries.get(address.substring(2, 7));
+        return victim != null ? victim : block;
+    }
+    
+    // 原子操作读到的一致数据：本节点有效副本，否则其他节点的有效副本，否则归属节点存储器
+    private String[] coherentData(CPUNode node, CPUNode ownerNode, String address) {
+        String tag = address.substring(2, 6);
+        CacheBlock own = findBlock(node, address);
+        if (own.tag.equals(tag) && own.state != CacheState.INVALID) return own.data;
+        for (CPUNode other : cpuNodes) {
+            CacheBlock copy = findBlock(other, address);
+            if (copy.tag.equals(tag) && copy.state != CacheState.INVALID) return copy.data;
+        }
+        return ownerNode.privateMemory.read(address);
+    }
+    
     // 获取缓存索引
     private int getCacheIndex(String address) {
         String index = address.substring(6, 7);
         return Integer.parseInt(index, 16);
     }
     
-    /*
-     * 验证用户输入的有效性
-     */
-    private boolean validateInput(String address, String operation, String writeValue) {
-        // 验证地址格式(24位十六进制)
-        if (!address.matches("^0X[0-9A-F]{6}$")) {
-            JOptionPane.showMessageDialog(this, "无效地址格式（需为24位十六进制）");
-            return false;
-        }
-        // 验证写入值格式(16字节十六进制)
-        if (operation.equals("写") && !writeValue.matches("^[0-9A-F]{16}$")) {
-            JOptionPane.showMessageDialog(this, "写入值必须为16字节十六进制");
-            return false;
-        }
-        return true;
-    }
-
     /*
      * 记录内存请求历史
      */
-    private void recordRequest(String address, String operation, String targetCpuId, boolean cacheHit) {
+    private void recordRequest(String address, String operation, String targetCpuId, boolean cacheHit, String source) {
         Map<String, Object> request = new HashMap<>();
         request.put("address", address);
         request.put("operation", operation);
         request.put("targetCpu", targetCpuId);
         request.put("cacheHit", cacheHit);
+        // 数据来源(牺牲缓存/写缓冲等)附在命中/缺失之后显示
+        String result = cacheHit ? "命中" : "缺失";
+        if (source != null) result = cacheHit ? result + "(" + source + ")" : source;
+        request.put("result", result);
         request.put("ownerNode", getMemoryOwner(address));
-        request.put("details", generateOperationDetails(address, operation, targetCpuId, cacheHit));
+        request.put("details", generateOperationDetails(address, operation, targetCpuId, cacheHit, source));
 
         // 添加到历史记录的开头(最新记录显示在最前)
         requestHistory.add(0, request);
         // 保持最多10条记录
         if (requestHistory.size() > 10) requestHistory.remove(10);
-        updateHistoryList();
     }
     
     // 生成操作详情
     private List<String> generateOperationDetails(String address, String operation, 
-                                               String targetCpuId, boolean cacheHit) {
+                                               String targetCpuId, boolean cacheHit, String source) {
         List<String> details = new ArrayList<>();
         String ownerNode = getMemoryOwner(address);
         
         details.add(String.format("操作类型: %s", operation));
+        if ("写缓冲".equals(source)) {
+            details.add(String.format("存储器归属节点: %s", ownerNode));
+            details.add("写入写缓冲后立即退休");
+            details.add("后台向节点 " + ownerNode + " 获取所有权并作废其他副本后提交到Cache");
+            return details;
+        }
         details.add(String.format("Cache状态: %s", cacheHit ? "命中" : "缺失"));
         details.add(String.format("存储器归属节点: %s", ownerNode));
+        if ("牺牲缓存".equals(source)) {
+            details.add("由牺牲缓存提供数据，与直接映射Cache中的块交换");
+        } else if ("写缓冲转发".equals(source)) {
+            details.add("由本节点写缓冲转发尚未提交的写入值");
+            return details;
+        }
         
         if (operation.equals("读")) {
             details.add("读取数据到缓存");
@@ -713,31 +1878,36 @@ public class Directory extends JFrame {
      * 更新历史列表显示
      */
     private void updateHistoryList() {
+        SimEvents.RenderEvent event = SimEvents.render();
         historyModel.clear();
         requestHistory.forEach(r -> historyModel.addElement(
             String.format("[%s] %s %s %s (归属:%s)",
-                (Boolean) r.get("cacheHit") ? "命中" : "缺失",
+                r.get("result"),
                 r.get("targetCpu"),
                 r.get("operation"),
                 r.get("address"),
                 r.get("ownerNode")
             )
         ));
+        SimEvents.rendered(event, "Directory", "历史");
     }
 
     /*
      * 重新渲染CPU节点面板
      */
     private void renderCPUNodes() {
+        SimEvents.RenderEvent event = SimEvents.render();
         cpuNodesPanel.removeAll();
         for (CPUNode node : cpuNodes) {
             JPanel cpuPanel = new JPanel(new BorderLayout());
-            cpuPanel.setBorder(new TitledBorder(node.id));
+            cpuPanel.setBorder(new TitledBorder(nodeTitle(node)));
             cpuPanel.add(new JScrollPane(new JTable(createCacheTableModel(node))), BorderLayout.CENTER);
+            cpuPanel.add(createBufferPanel(node), BorderLayout.SOUTH);
             cpuNodesPanel.add(cpuPanel);
         }
         cpuNodesPanel.revalidate();
         cpuNodesPanel.repaint();
+        SimEvents.rendered(event, "Directory", "CPU节点");
     }
 
     /*
@@ -755,7 +1925,7 @@ public class Directory extends JFrame {
         details.append(String.format("目标节点: %s\n", request.get("targetCpu")));
         details.append(String.format("存储器归属节点: %s\n", request.get("ownerNode")));
         details.append(String.format("Cache状态: %s\n", 
-            (Boolean)request.get("cacheHit") ? "命中" : "缺失"));
+            request.get("result")));
         details.append("\n操作步骤:\n");
         
         @SuppressWarnings("unchecked")
@@ -767,17 +1937,95 @@ public class Directory extends JFrame {
         detailArea.setText(details.toString());
     }
 
+    // 一致性消息、原子操作、MSHR、存储放置与存储器压缩统计
+    private String statsText() {
+        BlockStore[] memories = Arrays.stream(cpuNodes).map(n -> n.privateMemory).toArray(BlockStore[]::new);
+        MissStatusRegisters[] mshrs = Arrays.stream(cpuNodes).map(n -> n.mshr).toArray(MissStatusRegisters[]::new);
+        return "<html>" + coherenceStats.summary() + "<br>" + atomics.summary() + "<br>" + MissStatusRegisters.summary(mshrs)
+            + "<br>" + placementStats.summary() + "<br>" + BlockStore.summary(memories) + "<br>" + energy.summary() + "</html>";
+    }
+
+    /*
+     * 显示缺失分类统计(按节点、Cache组、地址区间)
+     */
+    private void showMissReport() {
+        JTextArea reportArea = new JTextArea(missClassifier.report(), 30, 90);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "缺失分类", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /*
+     * 显示各节点的能耗明细与每次访存的能耗
+     */
+    private void showEnergyReport() {
+        JTextArea reportArea = new JTextArea(energy.report(), 12, 110);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "能耗", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /*
+     * 显示锁行争用统计(原子操作、CAS/SC失败、所有权迁移)
+     */
+    private void showAtomicReport() {
+        JTextArea reportArea = new JTextArea(atomics.report(), 20, 100);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "锁行争用", JOptionPane.PLAIN_MESSAGE);
+    }
+
     /*
      * 重置系统状态
      */
     private void resetSystem() {
+        if (replayTimer != null) replayTimer.stop();
         initSystem();
+        coherenceStats = new CoherenceStats();
+        missClassifier = new MissClassifier(CACHE_BLOCKS + VICTIM_ENTRIES);
+        atomics = new Atomics();
+        heatmap.reset();
+        energy = new EnergyModel(energy.nodeIds);
+        placementStats = new PlacementStats();
+        pageHome = new HashMap<>();
+        pageCounters = new HashMap<>();
         historyModel.clear();
         detailArea.setText("");
         renderCPUNodes();
         updateDirectoryTabs();
     }
 
+    /*
+     * 切换所有节点的预取器
+     */
+    private void changePrefetcher(String type) {
+        prefetcherType = type;
+        for (CPUNode node : cpuNodes) {
+            node.prefetcher = Prefetcher.create(type);
+            node.prefetchStats = new Prefetcher.Stats();
+        }
+        renderCPUNodes();
+    }
+
+    /*
+     * 切换内存模型
+     */
+    private void changeMemoryModel(String model) {
+        memoryModel = model;
+        if (model.equals("SC")) drainAllStoreBuffers();
+        renderCPUNodes();
+        updateDirectoryTabs();
+    }
+
+    // 提交所有节点写缓冲中的全部写(内存屏障)
+    private void drainAllStoreBuffers() {
+        for (CPUNode node : cpuNodes) {
+            while (!node.storeBuffer.entries.isEmpty()) {
+                commitStore(node, node.storeBuffer.poll());
+            }
+        }
+    }
+
     /*
      * 根据ID获取目标CPU节点
      */
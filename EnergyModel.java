@@ -0,0 +1,130 @@
+package Demo1;
+
+/*
+ * 能耗模型：为协议的每个动作按配置的单位能耗(pJ)记账，Snoop和Directory共用
+ * 能耗记在实际消耗它的节点上：Cache访问记在该Cache所在节点，总线广播与网络消息记在发送方，
+ * 目录查找与DRAM读写记在归属(存储)节点。每次访存的能耗按发出访存的节点统计访存数，
+ * 报告各节点的能耗与每次访存的平均能耗，用于按性能功耗比而不仅按命中率比较协议
+ *
+ * 单位能耗可通过 -Denergy.cache=10 -Denergy.bus=50 -Denergy.hop=5 -Denergy.byte=2
+ * -Denergy.directory=15 -Denergy.dram.read=2000 -Denergy.dram.write=2500 配置(pJ)
+ */
+class EnergyModel {
+    static final int CACHE_ACCESS = Integer.getInteger("energy.cache", 10);          // 一次Cache阵列访问(读、写、填充、作废)
+    static final int BUS_BROADCAST = Integer.getInteger("energy.bus", 50);           // 一次总线广播(含所有节点的监听查找)
+    static final int PER_HOP = Integer.getInteger("energy.hop", 5);                  // 一条消息经过一跳的路由开销
+    static final int PER_BYTE = Integer.getInteger("energy.byte", 2);                // 每字节每跳的链路开销
+    static final int DIRECTORY_LOOKUP = Integer.getInteger("energy.directory", 15);  // 一次目录查找与更新
+    static final int DRAM_READ = Integer.getInteger("energy.dram.read", 2000);       // 从DRAM读一块
+    static final int DRAM_WRITE = Integer.getInteger("energy.dram.write", 2500);     // 向DRAM写一块
+    static final int HEADER_BYTES = 8;      // 消息头(地址与命令)，控制消息只有消息头
+
+    // 能耗类别
+    static final int CACHE = 0;
+    static final int BUS = 1;
+    static final int NETWORK = 2;
+    static final int DIRECTORY = 3;
+    static final int DRAM = 4;
+    static final String[] CATEGORIES = {"Cache", "总线广播", "传输", "目录", "DRAM"};
+
+    final String[] nodeIds;
+    private final long[] accesses;      // 各节点发出的访存数
+    private final long[][] energy;      // [节点][类别] pJ
+
+    EnergyModel(String[] nodeIds) {
+        this.nodeIds = nodeIds;
+        accesses = new long[nodeIds.length];
+        energy = new long[nodeIds.length][CATEGORIES.length];
+    }
+
+    // 节点发出一次访存：计数并计一次Cache访问
+    void access(int node) {
+        accesses[node]++;
+        energy[node][CACHE] += CACHE_ACCESS;
+    }
+
+    // 访存之外的Cache阵列访问：填充、向其他节点提供数据、监听作废与更新
+    void cacheAccess(int node) {
+        energy[node][CACHE] += CACHE_ACCESS;
+    }
+
+    void broadcast(int node) {
+        energy[node][BUS] += BUS_BROADCAST;
+    }
+
+    // 一条消息从node发出，经hops跳(本节点内为0)，共bytes字节
+    void message(int node, int hops, int bytes) {
+        energy[node][NETWORK] += (long) hops * (PER_HOP + PER_BYTE * bytes);
+    }
+
+    void directoryLookup(int node) {
+        energy[node][DIRECTORY] += DIRECTORY_LOOKUP;
+    }
+
+    void dramRead(int node) {
+        energy[node][DRAM] += DRAM_READ;
+    }
+
+    void dramWrite(int node) {
+        energy[node][DRAM] += DRAM_WRITE;
+    }
+
+    long total() {
+        long total = 0;
+        for (long[] node : energy) {
+            for (long value : node) total += value;
+        }
+        return total;
+    }
+
+    long totalAccesses() {
+        long total = 0;
+        for (long count : accesses) total += count;
+        return total;
+    }
+
+    String summary() {
+        long[] byCategory = new long[CATEGORIES.length];
+        for (long[] node : energy) {
+            for (int c = 0; c < CATEGORIES.length; c++) byCategory[c] += node[c];
+        }
+        StringBuilder sb = new StringBuilder(String.format("能耗:%.1fnJ 每次访存:%.1fpJ (", total() / 1000.0,
+            perAccess(total(), totalAccesses())));
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            sb.append(c == 0 ? "" : " ").append(CATEGORIES[c]).append(':').append(percent(byCategory[c], total())).append('%');
+        }
+        return sb.append(')').toString();
+    }
+
+    /*
+     * 各节点的能耗分类明细，每次访存的能耗以该节点发出的访存数为分母(存储节点不发出访存，不计)
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("单位能耗(pJ): Cache访问:%d 总线广播:%d 每跳:%d 每字节每跳:%d 目录查找:%d DRAM读:%d DRAM写:%d%n%n",
+            CACHE_ACCESS, BUS_BROADCAST, PER_HOP, PER_BYTE, DIRECTORY_LOOKUP, DRAM_READ, DRAM_WRITE));
+        sb.append(String.format("%-8s%10s", "节点", "访存"));
+        for (String category : CATEGORIES) sb.append(String.format("%12s", category + "(pJ)"));
+        sb.append(String.format("%14s%14s%n", "合计(pJ)", "pJ/访存"));
+        for (int n = 0; n < nodeIds.length; n++) {
+            long nodeTotal = 0;
+            sb.append(String.format("%-8s%10d", nodeIds[n], accesses[n]));
+            for (long value : energy[n]) {
+                sb.append(String.format("%12d", value));
+                nodeTotal += value;
+            }
+            sb.append(String.format("%14d%14s%n", nodeTotal, accesses[n] == 0 ? "-" : String.format("%.1f", perAccess(nodeTotal, accesses[n]))));
+        }
+        sb.append(String.format("%n合计 %d pJ，访存 %d 次，平均每次访存 %.1f pJ%n", total(), totalAccesses(),
+            perAccess(total(), totalAccesses())));
+        return sb.toString();
+    }
+
+    private static double perAccess(long energy, long accesses) {
+        return accesses == 0 ? 0 : (double) energy / accesses;
+    }
+
+    private static String percent(long part, long total) {
+        return String.format("%.0f", total == 0 ? 0 : 100.0 * part / total);
+    }
+}
@@ -0,0 +1,421 @@
+package Demo1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * 层次化混合一致性仿真(无界面)：簇内监听，簇间目录
+ * 节点按编号连续划分为若干簇，每簇一条监听总线，簇内运行MSI/MESI写作废协议(同TraceEngine)；
+ * 簇间由按块号交叉分布在各簇的目录记录哪些簇持有副本以及是否有簇独占。
+ *   读缺失：先在本簇总线上监听，本簇有副本则由簇内提供；否则请求归属簇目录，
+ *           由存储器或独占簇(三跳转发)提供
+ *   写缺失/升级：本簇副本在总线上作废；若本簇不是唯一持有者，再经目录作废其他簇(各簇在自己的总线上广播)
+ *   替换：脏块写回归属簇；簇内最后一个副本离开时通知目录，目录始终精确
+ * 簇内M副本被簇内读请求降级时写回归属簇，本簇在目录中随之变为共享。
+ * 延迟模型：命中1周期，总线事务BUS_LATENCY，簇间每跳HOP_LATENCY，存储器MEMORY_LATENCY；
+ * 作废与取数并行，关键路径取两者中较长者。只有1个簇时退化为纯监听，每簇1个节点时退化为纯目录。
+ * 总节点数少于踪迹中CPU数的配置被跳过
+ *
+ * 用法: java -Dhybrid.clusters=1,2,4,8 -Dhybrid.cluster.size=1,2,4 -Dhybrid.output=hybrid.csv Demo1.HybridEngine trace.txt
+ */
+public class HybridEngine {
+    static final int BUS_LATENCY = Integer.getInteger("hybrid.bus.latency", 20);
+    static final int HOP_LATENCY = Integer.getInteger("hybrid.hop.latency", 100);
+    static final int MEMORY_LATENCY = Integer.getInteger("hybrid.memory.latency", 80);
+    static final int HIT_LATENCY = 1;
+    static final int CONTROL_BYTES = 8;     // 不带数据的请求/作废/应答消息大小
+    static final String OUTPUT = System.getProperty("hybrid.output", "hybrid.csv");
+    private static final long EXCLUSIVE_FLAG = 1L << 63;
+
+    final int clusters;     // 簇数
+    final int clusterSize;  // 每簇节点数
+    final int nodes;
+    final int sets;
+    final int ways;
+    final int blockBytes;
+    final boolean mesi;
+    private final int blockShift;
+
+    private final long[][] tags;    // [节点][组*相联度+路] 块号
+    private final byte[][] states;  // [节点][组*相联度+路] 一致性状态(TraceEngine常量)
+    private final long[][] lastUse; // [节点][组*相联度+路] LRU时间戳
+    private long tick;
+    private final Map<Long, Long> directory = new HashMap<>(); // 块号 -> 低位为持有副本的簇位图，最高位为独占标志
+
+    final Stats stats = new Stats();
+
+    HybridEngine(int clusters, int clusterSize, int sets, int ways, int blockBytes, String protocol) {
+        if (clusters < 1 || clusters > 63) throw new IllegalArgumentException("簇数必须在1~63之间: " + clusters);
+        if (clusterSize < 1 || sets < 1 || ways < 1) throw new IllegalArgumentException("簇大小、组数和相联度必须为正");
+        if (Integer.bitCount(blockBytes) != 1) throw new IllegalArgumentException("块大小必须为2的幂: " + blockBytes);
+        this.clusters = clusters;
+        this.clusterSize = clusterSize;
+        this.nodes = clusters * clusterSize;
+        this.sets = sets;
+        this.ways = ways;
+        this.blockBytes = blockBytes;
+        this.blockShift = Integer.numberOfTrailingZeros(blockBytes);
+        switch (protocol.toUpperCase()) {
+            case "MSI": mesi = false; break;
+            case "MESI": mesi = true; break;
+            default: throw new IllegalArgumentException("未知协议: " + protocol);
+        }
+        tags = new long[nodes][sets * ways];
+        states = new byte[nodes][sets * ways];
+        lastUse = new long[nodes][sets * ways];
+        for (long[] nodeTags : tags) Arrays.fill(nodeTags, -1);
+    }
+
+    // 块的归属簇(按块号交叉)
+    int homeOf(long block) { return (int) (block % clusters); }
+
+    private static long mask(int cluster) { return 1L << cluster; }
+
+    private static int hop(int from, int to) { return from == to ? 0 : HOP_LATENCY; }
+
+    /*
+     * 处理一次访存请求
+     */
+    void access(int cpu, boolean write, int address) {
+        if (cpu < 0 || cpu >= nodes) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+        tick++;
+        long block = (address & 0xFFFFFFFFL) >>> blockShift;
+        int set = (int) (block % sets);
+        int cluster = cpu / clusterSize;
+        int way = lookup(cpu, set, block);
+        stats.accesses++;
+        if (write) stats.writes++;
+
+        if (way >= 0 && (!write || states[cpu][way] == TraceEngine.MODIFIED || states[cpu][way] == TraceEngine.EXCLUSIVE)) {
+            if (write) {
+                stats.writeHits++;
+                states[cpu][way] = TraceEngine.MODIFIED;
+            } else {
+                stats.readHits++;
+            }
+            lastUse[cpu][way] = tick;
+            stats.latency += HIT_LATENCY;
+            return;
+        }
+
+        long interBefore = stats.interMessages;
+        long latency = HIT_LATENCY + BUS_LATENCY;
+        stats.busTransactions++;
+        if (way >= 0) {
+            // 写命中SHARED：本簇总线升级，必要时经目录作废其他簇
+            stats.writeHits++;
+            stats.upgrades++;
+            snoopCluster(cluster, cpu, set, block, true);
+            latency += acquireExclusive(cluster, set, block, false);
+            states[cpu][way] = TraceEngine.MODIFIED;
+        } else {
+            if (write) stats.writeMisses++; else stats.readMisses++;
+            byte local = snoopCluster(cluster, cpu, set, block, write);
+            boolean exclusive = write;
+            if (local != TraceEngine.INVALID) {
+                // 本簇缓存提供数据
+                stats.clusterSupplied++;
+                stats.intraBytes += blockBytes;
+                if (write) {
+                    latency += acquireExclusive(cluster, set, block, false);
+                } else if (local == TraceEngine.MODIFIED || local == TraceEngine.EXCLUSIVE) {
+                    if (local == TraceEngine.MODIFIED) writeBack(cluster, block);
+                    directory.put(block, mask(cluster)); // 本簇降为共享
+                }
+            } else if (write) {
+                latency += acquireExclusive(cluster, set, block, true);
+            } else {
+                latency += readFromDirectory(cluster, set, block);
+                exclusive = mesi && directory.get(block) == (mask(cluster) | EXCLUSIVE_FLAG);
+            }
+            way = victimWay(cpu, set);
+            evict(cpu, cluster, way);
+            tags[cpu][way] = block;
+            states[cpu][way] = write ? TraceEngine.MODIFIED : exclusive ? TraceEngine.EXCLUSIVE : TraceEngine.SHARED;
+        }
+        lastUse[cpu][way] = tick;
+        stats.latency += latency;
+        if (stats.interMessages > interBefore) {
+            stats.remoteTransactions++;
+            stats.remoteLatency += latency;
+        } else {
+            stats.localTransactions++;
+            stats.localLatency += latency;
+        }
+    }
+
+    private int lookup(int cpu, int set, long block) {
+        int base = set * ways;
+        for (int w = 0; w < ways; w++) {
+            if (states[cpu][base + w] != TraceEngine.INVALID && tags[cpu][base + w] == block) return base + w;
+        }
+        return -1;
+    }
+
+    /*
+     * 簇内监听(requester为-1表示由目录发起)：独占请求作废所有副本，读请求把M/E降为S
+     * 返回簇内其他节点中最强的副本状态
+     */
+    private byte snoopCluster(int cluster, int requester, int set, long block, boolean exclusive) {
+        byte strongest = TraceEngine.INVALID;
+        for (int n = cluster * clusterSize; n < (cluster + 1) * clusterSize; n++) {
+            if (n == requester) continue;
+            int way = lookup(n, set, block);
+            if (way < 0) continue;
+            byte state = states[n][way];
+            if (state == TraceEngine.MODIFIED || strongest == TraceEngine.INVALID
+                    || state == TraceEngine.EXCLUSIVE && strongest == TraceEngine.SHARED) {
+                strongest = state;
+            }
+            if (exclusive) {
+                states[n][way] = TraceEngine.INVALID;
+                stats.nodeInvalidations++;
+            } else {
+                states[n][way] = TraceEngine.SHARED;
+            }
+        }
+        return strongest;
+    }
+
+    // 簇内是否仍有节点持有该块
+    private boolean clusterHolds(int cluster, int set, long block) {
+        for (int n = cluster * clusterSize; n < (cluster + 1) * clusterSize; n++) {
+            if (lookup(n, set, block) >= 0) return true;
+        }
+        return false;
+    }
+
+    // 簇间消息计数
+    private void message(int from, int to, boolean data) {
+        if (from == to) return;
+        stats.interMessages++;
+        stats.interBytes += CONTROL_BYTES + (data ? blockBytes : 0);
+    }
+
+    /*
+     * 本簇没有副本的读缺失：请求归属簇目录，返回总线之后的延迟
+     */
+    private long readFromDirectory(int cluster, int set, long block) {
+        int home = homeOf(block);
+        long entry = directory.getOrDefault(block, 0L);
+        stats.directoryRequests++;
+        message(cluster, home, false);
+        if ((entry & EXCLUSIVE_FLAG) != 0) {
+            // 独占簇提供数据并降为共享，脏数据同时写回归属簇
+            int owner = Long.numberOfTrailingZeros(entry & ~EXCLUSIVE_FLAG);
+            stats.forwards++;
+            stats.busTransactions++;
+            message(home, owner, false);
+            byte state = snoopCluster(owner, -1, set, block, false);
+            message(owner, cluster, true);
+            stats.intraBytes += CONTROL_BYTES + blockBytes;
+            if (state == TraceEngine.MODIFIED) writeBack(owner, block);
+            directory.put(block, mask(owner) | mask(cluster));
+            return hop(cluster, home) + hop(home, owner) + BUS_LATENCY + hop(owner, cluster);
+        }
+        // 归属簇存储器提供数据；MESI下没有其他簇持有时独占授予
+        stats.memoryReads++;
+        message(home, cluster, true);
+        directory.put(block, entry == 0 && mesi ? mask(cluster) | EXCLUSIVE_FLAG : entry | mask(cluster));
+        return hop(cluster, home) + MEMORY_LATENCY + hop(home, cluster);
+    }
+
+    /*
+     * 为本簇取得独占权：作废其他簇的副本(needData时同时取数)，返回总线之后的延迟
+     */
+    private long acquireExclusive(int cluster, int set, long block, boolean needData) {
+        long entry = directory.getOrDefault(block, 0L);
+        if (entry == (mask(cluster) | EXCLUSIVE_FLAG)) return 0; // 本簇已独占，簇内完成
+        int home = homeOf(block);
+        stats.directoryRequests++;
+        message(cluster, home, false);
+        long latency;
+        if ((entry & EXCLUSIVE_FLAG) != 0) {
+            // 其他簇独占：转发给独占簇，由其作废本簇副本并直接提供数据
+            int owner = Long.numberOfTrailingZeros(entry & ~EXCLUSIVE_FLAG);
+            stats.forwards++;
+            stats.busTransactions++;
+            stats.clusterInvalidations++;
+            message(home, owner, false);
+            snoopCluster(owner, -1, set, block, true);
+            message(owner, cluster, true);
+            stats.intraBytes += CONTROL_BYTES + blockBytes;
+            latency = hop(cluster, home) + hop(home, owner) + BUS_LATENCY + hop(owner, cluster);
+        } else {
+            long invalidation = 0;
+            long sharers = entry & ~mask(cluster);
+            while (sharers != 0) {
+                int sharer = Long.numberOfTrailingZeros(sharers);
+                sharers &= sharers - 1;
+                stats.clusterInvalidations++;
+                stats.busTransactions++;
+                stats.intraBytes += CONTROL_BYTES;
+                message(home, sharer, false);
+                snoopCluster(sharer, -1, set, block, true);
+                message(sharer, cluster, false); // 作废应答
+                invalidation = Math.max(invalidation, hop(home, sharer) + BUS_LATENCY + hop(sharer, cluster));
+            }
+            if (needData) stats.memoryReads++;
+            message(home, cluster, needData);
+            latency = hop(cluster, home) + Math.max(invalidation, (needData ? MEMORY_LATENCY : 0) + hop(home, cluster));
+        }
+        directory.put(block, mask(cluster) | EXCLUSIVE_FLAG);
+        return latency;
+    }
+
+    // 脏块写回归属簇
+    private void writeBack(int cluster, long block) {
+        stats.writeBacks++;
+        stats.intraBytes += blockBytes;
+        if (homeOf(block) != cluster) stats.remoteWriteBacks++;
+        message(cluster, homeOf(block), true);
+    }
+
+    /*
+     * 替换槽位中的块：脏块写回，簇内最后一个副本离开时通知目录
+     */
+    private void evict(int cpu, int cluster, int slot) {
+        byte state = states[cpu][slot];
+        if (state == TraceEngine.INVALID) return;
+        long block = tags[cpu][slot];
+        states[cpu][slot] = TraceEngine.INVALID;
+        if (state == TraceEngine.MODIFIED) writeBack(cluster, block);
+        if (clusterHolds(cluster, (int) (block % sets), block)) return;
+        if (state != TraceEngine.MODIFIED) {
+            stats.replacementHints++;
+            message(cluster, homeOf(block), false);
+        }
+        long entry = directory.getOrDefault(block, 0L) & ~mask(cluster) & ~EXCLUSIVE_FLAG;
+        if (entry == 0) directory.remove(block); else directory.put(block, entry);
+    }
+
+    private int victimWay(int cpu, int set) {
+        int base = set * ways;
+        int victim = base;
+        for (int w = 0; w < ways; w++) {
+            int slot = base + w;
+            if (states[cpu][slot] == TraceEngine.INVALID) return slot;
+            if (lastUse[cpu][slot] < lastUse[cpu][victim]) victim = slot;
+        }
+        return victim;
+    }
+
+    /*
+     * 仿真统计：簇内流量(总线事务与总线上的字节)与簇间流量(消息与字节)分开计
+     */
+    static class Stats {
+        long accesses;
+        long writes;
+        long readHits;
+        long writeHits;
+        long readMisses;
+        long writeMisses;
+        long upgrades;              // 写命中SHARED
+        long busTransactions;       // 各簇总线上的事务(含目录发起的远程监听)
+        long intraBytes;            // 簇内总线上传输的字节
+        long clusterSupplied;       // 缺失由本簇其他节点提供
+        long directoryRequests;     // 到达目录的请求
+        long memoryReads;           // 由归属簇存储器提供数据
+        long forwards;              // 转发到独占簇
+        long nodeInvalidations;     // 被作废的节点副本
+        long clusterInvalidations;  // 目录作废的簇数
+        long writeBacks;
+        long remoteWriteBacks;      // 写回到其他簇
+        long replacementHints;      // 簇内最后一个干净副本被替换时的目录通知
+        long interMessages;         // 簇间消息
+        long interBytes;            // 簇间传输的字节
+        long latency;               // 全部访存的总延迟(周期)
+        long localTransactions;     // 不需要簇间消息的缺失/升级
+        long localLatency;
+        long remoteTransactions;    // 需要簇间消息的缺失/升级
+        long remoteLatency;
+
+        long misses() { return readMisses + writeMisses; }
+
+        double missRate() { return accesses == 0 ? 0 : (double) misses() / accesses; }
+
+        double averageLatency() { return accesses == 0 ? 0 : (double) latency / accesses; }
+
+        double localAverage() { return localTransactions == 0 ? 0 : (double) localLatency / localTransactions; }
+
+        double remoteAverage() { return remoteTransactions == 0 ? 0 : (double) remoteLatency / remoteTransactions; }
+
+        String summary() {
+            return String.format("访存:%d 缺失:%d (%.2f%%) 升级:%d 簇内提供:%d 目录请求:%d 转发:%d 作废簇:%d 写回:%d(远程%d) "
+                    + "簇内:%d事务/%dB 簇间:%d消息/%dB 平均延迟:%.1f 簇内完成:%d(%.1f) 跨簇:%d(%.1f)",
+                accesses, misses(), missRate() * 100, upgrades, clusterSupplied, directoryRequests, forwards,
+                clusterInvalidations, writeBacks, remoteWriteBacks, busTransactions, intraBytes, interMessages, interBytes,
+                averageLatency(), localTransactions, localAverage(), remoteTransactions, remoteAverage());
+        }
+    }
+
+    private static List<Integer> intList(String property, String defaultValue) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : System.getProperty(property, defaultValue).split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java [-Dhybrid.clusters=1,2,4 -Dhybrid.cluster.size=1,2,4 -Dhybrid.sets=16 -Dhybrid.ways=1 -Dhybrid.block=16 "
+                + "-Dhybrid.protocol=MSI -Dhybrid.bus.latency=20 -Dhybrid.hop.latency=100 -Dhybrid.memory.latency=80 "
+                + "-Dhybrid.output=hybrid.csv] Demo1.HybridEngine 踪迹文件");
+            System.exit(1);
+        }
+        int sets = Integer.getInteger("hybrid.sets", 16);
+        int ways = Integer.getInteger("hybrid.ways", 1);
+        int block = Integer.getInteger("hybrid.block", 16);
+        String protocol = System.getProperty("hybrid.protocol", "MSI");
+        List<Integer> clusterCounts = intList("hybrid.clusters", "1,2,4");
+        List<Integer> clusterSizes = intList("hybrid.cluster.size", "1,2,4");
+
+        List<LongBuffer> segments = TraceSweep.mapTrace(Paths.get(args[0]));
+        int traceCpus = TraceSweep.cpuCount(segments);
+        Path output = Paths.get(OUTPUT);
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("clusters,cluster_size,nodes,accesses,misses,miss_rate,cluster_supplied,directory_requests,forwards,"
+                + "cluster_invalidations,write_backs,remote_write_backs,bus_transactions,intra_bytes,inter_messages,inter_bytes,"
+                + "avg_latency,local_transactions,local_avg_latency,remote_transactions,remote_avg_latency");
+            writer.newLine();
+            for (int clusters : clusterCounts) {
+                for (int size : clusterSizes) {
+                    if (clusters * size < traceCpus) {
+                        // 节点少于踪迹中的CPU时无法按原样运行，折叠CPU会改变共享关系，不参与比较
+                        System.out.printf("%d簇×%d节点  跳过: 踪迹有%d个CPU%n", clusters, size, traceCpus);
+                        continue;
+                    }
+                    HybridEngine engine = new HybridEngine(clusters, size, sets, ways, block, protocol);
+                    for (LongBuffer segment : segments) {
+                        LongBuffer view = segment.duplicate();
+                        while (view.hasRemaining()) {
+                            long ref = view.get();
+                            engine.access(TraceEngine.cpuOf(ref), TraceEngine.isWrite(ref), TraceEngine.addressOf(ref));
+                        }
+                    }
+                    Stats s = engine.stats;
+                    System.out.printf("%d簇×%d节点  %s%n", clusters, size, s.summary());
+                    writer.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%.6f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%d,%.3f,%d,%.3f",
+                        clusters, size, engine.nodes, s.accesses, s.misses(), s.missRate(), s.clusterSupplied,
+                        s.directoryRequests, s.forwards, s.clusterInvalidations, s.writeBacks, s.remoteWriteBacks,
+                        s.busTransactions, s.intraBytes, s.interMessages, s.interBytes, s.averageLatency(),
+                        s.localTransactions, s.localAverage(), s.remoteTransactions, s.remoteAverage()));
+                    writer.newLine();
+                }
+            }
+        }
+        System.out.println("结果写入 " + output);
+    }
+}
@@ -0,0 +1,193 @@
+package Demo1;
+
+import java.util.Arrays;
+
+/*
+ * 锁与计数器的访存脚本生成器，用于在两种协议上比较锁行争用
+ * 按轮转调度模拟各CPU执行锁算法(每轮每个CPU发出一条访存)，算法所需的值在生成时按脚本顺序推算，
+ * 与模拟器中原子操作的结果一致。每个CPU获取锁ROUNDS次，临界区内读受保护的计数器，再写回读到的值加1
+ * (写入值取自本CPU在临界区内读到的值，而非生成时的最新值)，互斥被破坏时会丢失更新，计数器终值小于CPU数×ROUNDS。
+ * 所有变量放在同一页内、映射到直接映射Cache的不同组，避免相互冲突
+ */
+class LockWorkloads {
+    static final String[] KINDS = {"TAS自旋锁", "TTAS自旋锁", "票据锁", "MCS队列锁", "LL/SC计数器", "FAA计数器"};
+    static final int ROUNDS = Integer.getInteger("lock.rounds", 2);
+    static final int MAX_LINES = 2000;     // 防止长时间自旋生成过长的脚本
+
+    private static final String LOCK = "0X004000";     // TAS/TTAS锁变量
+    private static final String DATA = "0X004010";     // 临界区保护的数据/计数器
+    private static final String NEXT = "0X004020";     // 票据锁：下一张票
+    private static final String SERVING = "0X004030";  // 票据锁：正在服务的票
+    private static final String TAIL = "0X004040";     // MCS：队尾(节点号+1，0为空)
+
+    // MCS节点i的locked标志和next指针各占一块
+    private static String qnodeLocked(int i) { return String.format("0X0040%X0", 8 + i); }
+
+    private static String qnodeNext(int i) { return String.format("0X0040%X0", 12 + i); }
+
+    // 以一位十六进制值开头的整块写入值
+    private static String value(int v) { return String.format("%X000000000000000", v & 0xF); }
+
+    private enum Step { START, SPIN, ACQUIRE, LINK, WAIT, READ_DATA, WRITE_DATA, RELEASE, RELEASE_CAS, WAIT_NEXT, HAND_OFF, DONE }
+
+    /*
+     * 生成脚本文本，cpuIds为参与的节点(MCS最多支持4个节点)
+     */
+    static String script(String kind, String[] cpuIds) {
+        int n = Math.min(cpuIds.length, 4);
+        StringBuilder sb = new StringBuilder("# " + kind + "，" + n + "个CPU各" + ROUNDS + "次\n");
+        Step[] steps = new Step[n];
+        int[] rounds = new int[n];
+        int[] ticket = new int[n];
+        long[] linkVersion = new long[n];
+        int[] locked = new int[n];
+        int[] next = new int[n];
+        int[] held = new int[n];    // 各CPU在临界区内读到的计数器值(寄存器)
+        Arrays.fill(steps, Step.START);
+        int lock = 0, data = 0, nextTicket = 0, serving = 0, tail = 0;
+        long dataVersion = 0;
+        int lines = 0;
+
+        while (lines < MAX_LINES) {
+            boolean active = false;
+            for (int i = 0; i < n && lines < MAX_LINES; i++) {
+                if (steps[i] == Step.DONE) continue;
+                active = true;
+                String cpu = cpuIds[i];
+                String line;
+                switch (kind) {
+                    case "TAS自旋锁":
+                    case "TTAS自旋锁":
+                        if (steps[i] == Step.START) steps[i] = kind.startsWith("TTAS") ? Step.SPIN : Step.ACQUIRE;
+                        if (steps[i] == Step.SPIN) {
+                            // 先自旋读，看到锁空闲再尝试交换
+                            line = cpu + " 读 " + LOCK;
+                            if (lock == 0) steps[i] = Step.ACQUIRE;
+                        } else if (steps[i] == Step.ACQUIRE) {
+                            line = cpu + " SWAP " + LOCK + " 1";
+                            if (lock == 0) steps[i] = Step.READ_DATA; else if (kind.startsWith("TTAS")) steps[i] = Step.SPIN;
+                            lock = 1;
+                        } else if (steps[i] == Step.RELEASE) {
+                            line = cpu + " 写 " + LOCK + " " + value(0);
+                            lock = 0;
+                            steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                        } else {
+                            line = criticalSection(cpu, steps, i, held, data);
+                            if (steps[i] == Step.RELEASE) data = held[i] + 1;
+                        }
+                        break;
+                    case "票据锁":
+                        if (steps[i] == Step.START) {
+                            line = cpu + " FAA " + NEXT + " 1";
+                            ticket[i] = nextTicket;
+                            nextTicket = (nextTicket + 1) & 0xF;
+                            steps[i] = Step.WAIT;
+                        } else if (steps[i] == Step.WAIT) {
+                            line = cpu + " 读 " + SERVING;
+                            if (serving == ticket[i]) steps[i] = Step.READ_DATA;
+                        } else if (steps[i] == Step.RELEASE) {
+                            serving = (serving + 1) & 0xF;
+                            line = cpu + " 写 " + SERVING + " " + value(serving);
+                            steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                        } else {
+                            line = criticalSection(cpu, steps, i, held, data);
+                            if (steps[i] == Step.RELEASE) data = held[i] + 1;
+                        }
+                        break;
+                    case "MCS队列锁":
+                        switch (steps[i]) {
+                            case START:
+                                // 初始化本节点的队列节点：next为空、locked置1
+                                line = cpu + " 写 " + qnodeNext(i) + " " + value(0) + "\n" + cpu + " 写 " + qnodeLocked(i) + " " + value(1);
+                                next[i] = 0;
+                                locked[i] = 1;
+                                steps[i] = Step.ACQUIRE;
+                                break;
+                            case ACQUIRE:
+                                line = cpu + " SWAP " + TAIL + " " + (i + 1);
+                                int predecessor = tail;
+                                tail = i + 1;
+                                if (predecessor == 0) {
+                                    steps[i] = Step.READ_DATA;
+                                } else {
+                                    ticket[i] = predecessor - 1;
+                                    steps[i] = Step.LINK;
+                                }
+                                break;
+                            case LINK:
+                                line = cpu + " 写 " + qnodeNext(ticket[i]) + " " + value(i + 1);
+                                next[ticket[i]] = i + 1;
+                                steps[i] = Step.SPIN;
+                                break;
+                            case SPIN:
+                                // 只在本节点的locked标志上自旋
+                                line = cpu + " 读 " + qnodeLocked(i);
+                                if (locked[i] == 0) steps[i] = Step.READ_DATA;
+                                break;
+                            case RELEASE:
+                            case WAIT_NEXT:
+                                line = cpu + " 读 " + qnodeNext(i);
+                                if (next[i] != 0) steps[i] = Step.HAND_OFF;
+                                else if (steps[i] == Step.RELEASE) steps[i] = Step.RELEASE_CAS;
+                                break;
+                            case RELEASE_CAS:
+                                line = cpu + " CAS " + TAIL + " " + (i + 1) + ",0";
+                                if (tail == i + 1) {
+                                    tail = 0;
+                                    steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                                } else {
+                                    steps[i] = Step.WAIT_NEXT; // 后继已入队但尚未链接
+                                }
+                                break;
+                            case HAND_OFF:
+                                line = cpu + " 写 " + qnodeLocked(next[i] - 1) + " " + value(0);
+                                locked[next[i] - 1] = 0;
+                                steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                                break;
+                            default:
+                                line = criticalSection(cpu, steps, i, held, data);
+                                if (steps[i] == Step.RELEASE) data = held[i] + 1;
+                        }
+                        break;
+                    case "LL/SC计数器":
+                        if (steps[i] == Step.START) {
+                            line = cpu + " LL " + DATA;
+                            linkVersion[i] = dataVersion;
+                            steps[i] = Step.WRITE_DATA;
+                        } else {
+                            line = cpu + " SC " + DATA + " " + Integer.toHexString((data + 1) & 0xF).toUpperCase();
+                            if (linkVersion[i] == dataVersion) {
+                                data++;
+                                dataVersion++;
+                                steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                            } else {
+                                steps[i] = Step.START; // 预约失效，重试
+                            }
+                        }
+                        break;
+                    case "FAA计数器":
+                        line = cpu + " FAA " + DATA + " 1";
+                        steps[i] = ++rounds[i] < ROUNDS ? Step.START : Step.DONE;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知锁模板: " + kind);
+                }
+                sb.append(line).append('\n');
+                lines++;
+            }
+            if (!active) break;
+        }
+        return sb.toString();
+    }
+
+    // 临界区：读受保护的计数器到本CPU的寄存器，再写入寄存器值加1，随后进入释放步骤
+    private static String criticalSection(String cpu, Step[] steps, int i, int[] held, int data) {
+        if (steps[i] == Step.READ_DATA) {
+            held[i] = data;
+            steps[i] = Step.WRITE_DATA;
+            return cpu + " 读 " + DATA;
+        }
+        steps[i] = Step.RELEASE;
+        return cpu + " 写 " + DATA + " " + value(held[i] + 1);
+    }
+}
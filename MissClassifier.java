@@ -0,0 +1,131 @@
+package Demo1;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/*
+ * 缺失分类：冷缺失、容量、冲突、真共享、假共享
+ * 每个节点维护一个与片上总容量相同的全相联LRU影子Cache，以及曾经访问过的块集合：
+ *   首次访问该块                       -> 冷缺失
+ *   该块上次离开本节点是因为被其他节点作废 -> 共享缺失；作废以来其他节点写过本次访问的字为真共享，否则为假共享
+ *   影子Cache中仍有该块                 -> 冲突(全相联下会命中)
+ *   否则                               -> 容量
+ * 统计按节点、Cache组和地址区间(-Dmiss.range.bits，默认4KB)分别累计
+ */
+class MissClassifier {
+    enum MissType {
+        COMPULSORY("冷缺失"), CAPACITY("容量"), CONFLICT("冲突"), TRUE_SHARING("真共享"), FALSE_SHARING("假共享");
+        final String label;
+        MissType(String label) { this.label = label; }
+    }
+
+    static final int WORD_BYTES = 4;    // 字大小，16B块内共4个字
+    static final int RANGE_BITS = Integer.getInteger("miss.range.bits", 12);
+
+    private final int capacity;         // 影子Cache容量(块)
+    private final Map<String, Set<String>> referenced = new HashMap<>();                  // 节点 -> 访问过的块
+    private final Map<String, LinkedHashMap<String, Boolean>> shadow = new HashMap<>();   // 节点 -> 全相联LRU影子Cache
+    private final Map<String, Map<String, Integer>> invalidated = new HashMap<>();       // 节点 -> 被作废的块 -> 此后被其他节点写过的字(位图)
+
+    final Map<String, int[]> byNode = new TreeMap<>();
+    final Map<Integer, int[]> bySet = new TreeMap<>();
+    final Map<Integer, int[]> byRange = new TreeMap<>();
+
+    MissClassifier(int capacity) { this.capacity = capacity; }
+
+    /*
+     * 记录一次需求访问(地址形如0X001234)，返回缺失类型，命中返回null
+     */
+    MissType access(String nodeId, String address, boolean hit, boolean write) {
+        String blockAddress = address.substring(2, 7);
+        int word = Integer.parseInt(address.substring(7, 8), 16) / WORD_BYTES;
+        if (write) {
+            // 其他节点中该块处于作废状态时，记下被写的字
+            for (Map.Entry<String, Map<String, Integer>> entry : invalidated.entrySet()) {
+                if (!entry.getKey().equals(nodeId)) entry.getValue().computeIfPresent(blockAddress, (b, words) -> words | 1 << word);
+            }
+        }
+
+        boolean firstTouch = referenced.computeIfAbsent(nodeId, n -> new HashSet<>()).add(blockAddress);
+        Integer writtenWords = invalidated.computeIfAbsent(nodeId, n -> new HashMap<>()).remove(blockAddress);
+        LinkedHashMap<String, Boolean> lru = shadow.computeIfAbsent(nodeId, n -> new LinkedHashMap<>(16, 0.75f, true));
+        boolean inShadow = lru.get(blockAddress) != null;
+        lru.put(blockAddress, Boolean.TRUE);
+        if (lru.size() > capacity) {
+            Iterator<String> it = lru.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        if (hit) return null;
+
+        MissType type;
+        if (firstTouch) type = MissType.COMPULSORY;
+        else if (writtenWords != null) type = (writtenWords & 1 << word) != 0 ? MissType.TRUE_SHARING : MissType.FALSE_SHARING;
+        else if (inShadow) type = MissType.CONFLICT;
+        else type = MissType.CAPACITY;
+
+        int address24 = Integer.parseInt(address.substring(2), 16);
+        count(byNode, nodeId, type);
+        count(bySet, Integer.parseInt(address.substring(6, 7), 16), type);
+        count(byRange, address24 >>> RANGE_BITS, type);
+        return type;
+    }
+
+    /*
+     * 写者的写作废了nodeId中的副本，address为写者访问的地址
+     */
+    void invalidate(String nodeId, String address) {
+        String blockAddress = address.substring(2, 7);
+        int word = Integer.parseInt(address.substring(7, 8), 16) / WORD_BYTES;
+        invalidated.computeIfAbsent(nodeId, n -> new HashMap<>()).merge(blockAddress, 1 << word, (a, b) -> a | b);
+        LinkedHashMap<String, Boolean> lru = shadow.get(nodeId);
+        if (lru != null) lru.remove(blockAddress);
+    }
+
+    private static <K> void count(Map<K, int[]> table, K key, MissType type) {
+        table.computeIfAbsent(key, k -> new int[MissType.values().length])[type.ordinal()]++;
+    }
+
+    /*
+     * 生成按节点、组和地址区间的统计表
+     */
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        appendTable(sb, "节点", byNode, k -> k);
+        appendTable(sb, "Cache组", bySet, k -> String.format("%X", k));
+        appendTable(sb, "地址区间", byRange, k -> String.format("0X%06X-0X%06X",
+            (long) k << RANGE_BITS, (((long) k + 1) << RANGE_BITS) - 1));
+        return sb.toString();
+    }
+
+    private static <K> void appendTable(StringBuilder sb, String title, Map<K, int[]> table,
+                                        Function<K, String> name) {
+        sb.append(String.format("%-20s", title));
+        for (MissType type : MissType.values()) sb.append(String.format("%8s", type.label));
+        sb.append(String.format("%8s%n", "合计"));
+        int[] total = new int[MissType.values().length];
+        for (Map.Entry<K, int[]> entry : table.entrySet()) {
+            sb.append(String.format("%-20s", name.apply(entry.getKey())));
+            int sum = 0;
+            for (int i = 0; i < total.length; i++) {
+                sb.append(String.format("%8d", entry.getValue()[i]));
+                total[i] += entry.getValue()[i];
+                sum += entry.getValue()[i];
+            }
+            sb.append(String.format("%8d%n", sum));
+        }
+        sb.append(String.format("%-20s", "合计"));
+        int sum = 0;
+        for (int count : total) {
+            sb.append(String.format("%8d", count));
+            sum += count;
+        }
+        sb.append(String.format("%8d%n%n", sum));
+    }
+}
@@ -0,0 +1,233 @@
+package Demo1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * 单遍缺失率曲线(MRC)分析
+ * 对每个节点计算LRU栈距离：栈距离d表示两次访问同一块之间访问过的不同块数，
+ * 在相联度为A的LRU组中当且仅当d < A时命中。按组数S分别统计组内栈距离，一遍即可得到
+ * 所有 组数×相联度 组合的缺失率。栈距离用树状数组在访问时间轴上计数，每次访问O(log n)。
+ *
+ * 一致性作废按强制缺失处理：其他节点写某块时，把该块从本节点的各个LRU栈中移除，
+ * 本节点下次访问它时记为一致性缺失。移除会让更深的块上移，而真实Cache中作废留下的空槽只由下一次缺失填入，
+ * 所以有共享写时结果比逐配置仿真略低(没有共享写时两者一致)。
+ * 可以按块地址哈希采样(SHARDS方法)，采样率R时栈距离按1/R放大。
+ *
+ * 用法: java -Dmrc.sets=1,16,64 -Dmrc.max.blocks=4096 -Dmrc.rate=0.1 -Dmrc.output=mrc.csv Demo1.MissRatioCurve trace.txt
+ */
+public class MissRatioCurve {
+    static final int NODES = Integer.getInteger("mrc.nodes", 4);
+    static final int BLOCK_BYTES = Integer.getInteger("mrc.block", 16);
+    static final int MAX_BLOCKS = Integer.getInteger("mrc.max.blocks", 4096); // 统计的最大Cache块数
+    static final double RATE = Double.parseDouble(System.getProperty("mrc.rate", "1"));
+    static final String OUTPUT = System.getProperty("mrc.output", "mrc.csv");
+    private static final long SAMPLE_MODULUS = 1 << 24;
+
+    /*
+     * 一个LRU栈：以访问时间为下标的树状数组记录每块最近一次访问，
+     * 两个时间点之间的标记数即栈距离；时间用尽时按先后顺序重新编号
+     */
+    static class StackTree {
+        private int[] tree = new int[1024 + 1];
+        private int time;
+        private final Map<Long, Integer> last = new HashMap<>(); // 块号 -> 最近访问时间
+        private final Set<Long> invalidated = new HashSet<>();   // 已被其他节点作废、尚未再次访问的块
+
+        /*
+         * 访问一块，返回栈距离；首次访问返回-1，作废后首次访问返回-2
+         */
+        long access(long block) {
+            if (time + 1 >= tree.length) compact();
+            Integer previous = last.get(block);
+            long distance;
+            if (previous != null) {
+                distance = prefix(time) - prefix(previous);
+                update(previous, -1);
+            } else {
+                distance = invalidated.remove(block) ? -2 : -1;
+            }
+            time++;
+            update(time, 1);
+            last.put(block, time);
+            return distance;
+        }
+
+        // 其他节点写作废：从栈中移除
+        void invalidate(long block) {
+            Integer previous = last.remove(block);
+            if (previous != null) {
+                update(previous, -1);
+                invalidated.add(block);
+            }
+        }
+
+        private void update(int index, int delta) {
+            for (int i = index; i < tree.length; i += i & -i) tree[i] += delta;
+        }
+
+        private int prefix(int index) {
+            int sum = 0;
+            for (int i = index; i > 0; i -= i & -i) sum += tree[i];
+            return sum;
+        }
+
+        // 按最近访问时间的先后把仍在栈中的块重新编号为1..k，并按需扩容
+        private void compact() {
+            List<Map.Entry<Long, Integer>> entries = new ArrayList<>(last.entrySet());
+            entries.sort(Map.Entry.comparingByValue());
+            tree = new int[Math.max(1024, entries.size() * 2) + 1];
+            time = 0;
+            for (Map.Entry<Long, Integer> entry : entries) {
+                time++;
+                update(time, 1);
+                last.put(entry.getKey(), time);
+            }
+        }
+    }
+
+    /*
+     * 某个节点在某个组数下的栈距离直方图
+     */
+    static class Profile {
+        final int sets;
+        final int maxWays;
+        final long[] histogram;     // [d] 组内栈距离为d的访问数，最后一项为超出范围
+        long accesses;
+        long coldMisses;
+        long coherenceMisses;
+        private final Map<Integer, StackTree> stacks = new HashMap<>();
+
+        Profile(int sets) {
+            this.sets = sets;
+            this.maxWays = Math.max(1, MAX_BLOCKS / sets);
+            this.histogram = new long[maxWays + 1];
+        }
+
+        void access(long block) {
+            long distance = stacks.computeIfAbsent((int) (block % sets), s -> new StackTree()).access(block);
+            accesses++;
+            if (distance == -1) coldMisses++;
+            else if (distance == -2) coherenceMisses++;
+            else histogram[(int) Math.min(maxWays, Math.round(distance / RATE))]++;
+        }
+
+        void invalidate(long block) {
+            StackTree stack = stacks.get((int) (block % sets));
+            if (stack != null) stack.invalidate(block);
+        }
+
+        // 相联度为ways时的缺失数
+        long misses(int ways) {
+            long misses = coldMisses + coherenceMisses;
+            for (int d = ways; d <= maxWays; d++) misses += histogram[d];
+            return misses;
+        }
+
+        double missRatio(int ways) { return accesses == 0 ? 0 : (double) misses(ways) / accesses; }
+    }
+
+    final int[] setCounts;
+    final Profile[][] profiles; // [节点][组数下标]
+    private final int blockShift;
+
+    MissRatioCurve(int nodes, int[] setCounts, int blockBytes) {
+        if (Integer.bitCount(blockBytes) != 1) throw new IllegalArgumentException("块大小必须为2的幂: " + blockBytes);
+        if (RATE <= 0 || RATE > 1) throw new IllegalArgumentException("采样率必须在(0, 1]之间: " + RATE);
+        this.setCounts = setCounts;
+        this.blockShift = Integer.numberOfTrailingZeros(blockBytes);
+        profiles = new Profile[nodes][setCounts.length];
+        for (int n = 0; n < nodes; n++) {
+            for (int i = 0; i < setCounts.length; i++) profiles[n][i] = new Profile(setCounts[i]);
+        }
+    }
+
+    // 按块号哈希决定是否采样
+    private static boolean sampled(long block) {
+        if (RATE >= 1) return true;
+        long hash = block * 0x9E3779B97F4A7C15L;
+        return ((hash >>> 40) % SAMPLE_MODULUS) < RATE * SAMPLE_MODULUS;
+    }
+
+    void access(long ref) {
+        int cpu = TraceEngine.cpuOf(ref);
+        if (cpu >= profiles.length) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+        long block = (TraceEngine.addressOf(ref) & 0xFFFFFFFFL) >>> blockShift;
+        if (!sampled(block)) return;
+        for (Profile profile : profiles[cpu]) profile.access(block);
+        if (TraceEngine.isWrite(ref)) {
+            for (int n = 0; n < profiles.length; n++) {
+                if (n == cpu) continue;
+                for (Profile profile : profiles[n]) profile.invalidate(block);
+            }
+        }
+    }
+
+    /*
+     * 输出各节点及全部节点合计在每个 组数×相联度(2的幂) 上的缺失率
+     */
+    void writeCsv(Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("node,sets,ways,blocks,bytes,accesses,misses,miss_ratio,cold_misses,coherence_misses");
+            writer.newLine();
+            for (int i = 0; i < setCounts.length; i++) {
+                for (int n = 0; n <= profiles.length; n++) {
+                    long accesses = 0, cold = 0, coherence = 0;
+                    for (int m = 0; m < profiles.length; m++) {
+                        if (n < profiles.length && m != n) continue;
+                        accesses += profiles[m][i].accesses;
+                        cold += profiles[m][i].coldMisses;
+                        coherence += profiles[m][i].coherenceMisses;
+                    }
+                    for (int ways = 1; ways <= profiles[0][i].maxWays; ways <<= 1) {
+                        long misses = 0;
+                        for (int m = 0; m < profiles.length; m++) {
+                            if (n == profiles.length || m == n) misses += profiles[m][i].misses(ways);
+                        }
+                        int blocks = setCounts[i] * ways;
+                        writer.write(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%d,%.6f,%d,%d",
+                            n == profiles.length ? "all" : String.valueOf(n), setCounts[i], ways, blocks,
+                            (long) blocks * BLOCK_BYTES, accesses, misses,
+                            accesses == 0 ? 0 : (double) misses / accesses, cold, coherence));
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java [-Dmrc.nodes=4 -Dmrc.block=16 -Dmrc.sets=1,16,64 -Dmrc.max.blocks=4096 -Dmrc.rate=1 -Dmrc.output=mrc.csv] Demo1.MissRatioCurve 踪迹文件");
+            System.exit(1);
+        }
+        String[] values = System.getProperty("mrc.sets", "1,16").split(",");
+        int[] setCounts = new int[values.length];
+        for (int i = 0; i < values.length; i++) setCounts[i] = Integer.parseInt(values[i].trim());
+
+        MissRatioCurve mrc = new MissRatioCurve(NODES, setCounts, BLOCK_BYTES);
+        long start = System.nanoTime();
+        TraceRunner.readTrace(Paths.get(args[0]), mrc::access);
+        mrc.writeCsv(Paths.get(OUTPUT));
+
+        // 控制台给出全相联(或第一个组数)下的曲线摘要
+        System.out.printf("组数=%d 块大小=%dB 采样率=%.3f 耗时 %.2fs，结果写入 %s%n", setCounts[0], BLOCK_BYTES, RATE,
+            (System.nanoTime() - start) / 1e9, OUTPUT);
+        for (int ways = 1; ways <= mrc.profiles[0][0].maxWays; ways <<= 1) {
+            StringBuilder line = new StringBuilder(String.format("%6d块", setCounts[0] * ways));
+            for (Profile[] node : mrc.profiles) line.append(String.format("  %6.2f%%", node[0].missRatio(ways) * 100));
+            System.out.println(line);
+        }
+    }
+}
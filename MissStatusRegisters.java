@@ -0,0 +1,156 @@
+package Demo1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * 缺失状态保持寄存器(MSHR)，使Cache成为非阻塞Cache
+ * 一致性状态仍在缺失发出时(排序点)完成转换，MSHR只对时序建模：主缺失占用一项直到数据在latency周期后到达，
+ * 期间对同一块的访问合并为次级缺失、不再发出请求，对其他块的命中照常进行(缺失下命中)；
+ * 所有项都在途时新的主缺失停顿到最早一项完成。
+ * 写缓冲提交的写与需求访问一样分配与合并；预取只在有空闲项且块不在途时发出，否则丢弃，不造成停顿
+ */
+class MissStatusRegisters {
+    // MSHR项：一个在途的块
+    static class Entry {
+        final String blockAddress;  // 块地址(地址去掉0X与块内偏移)
+        final boolean write;        // 主缺失是否为写
+        final long issuedAt;        // 发出请求的仿真周期
+        final long readyAt;         // 数据到达的仿真周期
+        int merged;                 // 合并进本项的次级缺失数
+
+        Entry(String blockAddress, boolean write, long issuedAt, long readyAt) {
+            this.blockAddress = blockAddress;
+            this.write = write;
+            this.issuedAt = issuedAt;
+            this.readyAt = readyAt;
+        }
+    }
+
+    final int capacity;
+    final List<Entry> entries = new ArrayList<>(); // 按发出顺序排列
+
+    // 统计
+    long primaryMisses;     // 分配MSHR的主缺失
+    long secondaryMisses;   // 合并到在途项的次级缺失
+    long hitsUnderMiss;     // 有缺失在途时的命中
+    long fullStalls;        // MSHR满而停顿的次数
+    long fullStallCycles;   // 满停顿的周期数
+    long prefetches;        // 分配了MSHR的预取
+    long droppedPrefetches; // MSHR满或块已在途而丢弃的预取
+    long occupancySum;      // 各周期在途项数之和
+    long busyCycles;        // 至少有一项在途的周期数
+    int maxOccupancy;
+    private long lastCycle; // 统计已累计到的周期
+
+    MissStatusRegisters(int capacity) { this.capacity = capacity; }
+
+    /*
+     * 推进到cycle：累计这段时间的占用，释放数据已到达的项
+     * 所有在途项都在lastCycle之前发出，所以有项在途的周期即到最晚完成(截至cycle)为止
+     */
+    void advance(long cycle) {
+        if (cycle <= lastCycle) return;
+        long busyUntil = lastCycle;
+        for (Entry entry : entries) {
+            long end = Math.min(entry.readyAt, cycle);
+            if (end <= lastCycle) continue;
+            occupancySum += end - lastCycle;
+            busyUntil = Math.max(busyUntil, end);
+        }
+        busyCycles += busyUntil - lastCycle;
+        lastCycle = cycle;
+        entries.removeIf(entry -> entry.readyAt <= cycle);
+    }
+
+    // 该地址所在块的在途项，没有则返回null
+    Entry lookup(String address) {
+        String blockAddress = address.substring(2, 7);
+        for (Entry entry : entries) {
+            if (entry.blockAddress.equals(blockAddress)) return entry;
+        }
+        return null;
+    }
+
+    // 记录一次命中(块不在途)
+    void hit() {
+        if (!entries.isEmpty()) hitsUnderMiss++;
+    }
+
+    /*
+     * 记录一次缺失：块已在途则合并，否则分配一项，数据latency周期后到达
+     * 返回MSHR满而停顿的周期数，调用方据此推进仿真周期
+     */
+    long miss(String address, boolean write, long cycle, int latency) {
+        Entry pending = lookup(address);
+        if (pending != null) {
+            pending.merged++;
+            secondaryMisses++;
+            return 0;
+        }
+        long stall = 0;
+        if (entries.size() >= capacity) {
+            long earliest = Long.MAX_VALUE;
+            for (Entry entry : entries) earliest = Math.min(earliest, entry.readyAt);
+            stall = earliest - cycle;
+            fullStalls++;
+            fullStallCycles += stall;
+            advance(earliest);
+        }
+        entries.add(new Entry(address.substring(2, 7), write, cycle + stall, cycle + stall + latency));
+        primaryMisses++;
+        maxOccupancy = Math.max(maxOccupancy, entries.size());
+        return stall;
+    }
+
+    /*
+     * 为预取分配一项：块已在途或没有空闲项时丢弃，返回是否发出
+     */
+    boolean prefetch(String address, long cycle, int latency) {
+        if (lookup(address) != null || entries.size() >= capacity) {
+            droppedPrefetches++;
+            return false;
+        }
+        entries.add(new Entry(address.substring(2, 7), false, cycle, cycle + latency));
+        prefetches++;
+        maxOccupancy = Math.max(maxOccupancy, entries.size());
+        return true;
+    }
+
+    // 次级缺失占全部缺失的比例
+    double mergeRate() {
+        long misses = primaryMisses + secondaryMisses;
+        return misses == 0 ? 0 : (double) secondaryMisses / misses;
+    }
+
+    // 存储级并行度：有缺失在途的周期中平均在途项数
+    double memoryLevelParallelism() { return busyCycles == 0 ? 0 : (double) occupancySum / busyCycles; }
+
+    /*
+     * 合并多个节点的统计为一行
+     */
+    static String summary(MissStatusRegisters... files) {
+        MissStatusRegisters total = new MissStatusRegisters(0);
+        for (MissStatusRegisters mshr : files) {
+            total.primaryMisses += mshr.primaryMisses;
+            total.secondaryMisses += mshr.secondaryMisses;
+            total.hitsUnderMiss += mshr.hitsUnderMiss;
+            total.fullStalls += mshr.fullStalls;
+            total.fullStallCycles += mshr.fullStallCycles;
+            total.prefetches += mshr.prefetches;
+            total.droppedPrefetches += mshr.droppedPrefetches;
+            total.occupancySum += mshr.occupancySum;
+            total.busyCycles += mshr.busyCycles;
+            total.maxOccupancy = Math.max(total.maxOccupancy, mshr.maxOccupancy);
+        }
+        return String.format("MSHR 主缺失:%d 合并:%d(%.1f%%) 缺失下命中:%d MLP:%.2f 最大占用:%d 满停顿:%d次/%d周期 预取:%d 丢弃预取:%d",
+            total.primaryMisses, total.secondaryMisses, total.mergeRate() * 100, total.hitsUnderMiss,
+            total.memoryLevelParallelism(), total.maxOccupancy, total.fullStalls, total.fullStallCycles,
+            total.prefetches, total.droppedPrefetches);
+    }
+
+    String summary() {
+        return String.format("MSHR %d/%d (合并:%d 缺失下命中:%d MLP:%.2f 满停顿:%d周期)",
+            entries.size(), capacity, secondaryMisses, hitsUnderMiss, memoryLevelParallelism(), fullStallCycles);
+    }
+}
@@ -0,0 +1,146 @@
+package Demo1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * 硬件预取器模型
+ * 以块号(地址去掉块内偏移，共20位)观察需求缺失流，给出要预取的块号；
+ * 预取请求由仿真器按普通读缺失走一致性协议路径(监听总线/目录)
+ */
+interface Prefetcher {
+    int MAX_BLOCK = 0xFFFFF;    // 最大块号(24位地址，16B块)
+    int DEGREE = Math.max(1, Integer.getInteger("prefetch.degree", 2)); // 预取度
+    String[] TYPES = {"none", "next-line", "stream", "adjacent"};
+
+    /*
+     * 训练预取器：在需求缺失或首次命中预取块时调用
+     * 返回需要预取的块号
+     */
+    List<Integer> onMiss(int blockNumber);
+
+    String getName();
+
+    static Prefetcher create(String type) {
+        switch (type) {
+            case "next-line": return new NextLine();
+            case "stream": return new Stream();
+            case "adjacent": return new AdjacentLine();
+            default: return new None();
+        }
+    }
+
+    // 不预取
+    class None implements Prefetcher {
+        public List<Integer> onMiss(int blockNumber) { return Collections.emptyList(); }
+        public String getName() { return "none"; }
+    }
+
+    // 下一行预取：缺失块之后的DEGREE个块
+    class NextLine implements Prefetcher {
+        public List<Integer> onMiss(int blockNumber) {
+            List<Integer> targets = new ArrayList<>();
+            for (int i = 1; i <= DEGREE && blockNumber + i <= MAX_BLOCK; i++) {
+                targets.add(blockNumber + i);
+            }
+            return targets;
+        }
+        public String getName() { return "next-line"; }
+    }
+
+    // 相邻行配对：预取与缺失块组成32B对齐块对的另一块
+    class AdjacentLine implements Prefetcher {
+        public List<Integer> onMiss(int blockNumber) {
+            return Collections.singletonList(blockNumber ^ 1);
+        }
+        public String getName() { return "adjacent"; }
+    }
+
+    /*
+     * 步长流检测(无PC)：跟踪若干条缺失流，
+     * 同一区域内连续两次出现相同步长后沿步长方向预取DEGREE个块
+     */
+    class Stream implements Prefetcher {
+        private static final int STREAMS = 4;   // 跟踪的流数量
+        private static final int WINDOW = 16;   // 判定属于同一条流的块号距离
+
+        private final int[] lastBlock = new int[STREAMS];
+        private final int[] stride = new int[STREAMS];
+        private final int[] confidence = new int[STREAMS];
+        private final long[] lastUse = new long[STREAMS];
+        private long tick;
+
+        Stream() {
+            Arrays.fill(lastBlock, -1);
+        }
+
+        public List<Integer> onMiss(int blockNumber) {
+            tick++;
+            int slot = -1;
+            for (int i = 0; i < STREAMS; i++) {
+                if (lastBlock[i] >= 0 && lastBlock[i] != blockNumber
+                        && Math.abs(blockNumber - lastBlock[i]) <= WINDOW) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                // 分配最久未使用的流表项
+                slot = 0;
+                for (int i = 1; i < STREAMS; i++) {
+                    if (lastUse[i] < lastUse[slot]) slot = i;
+                }
+                lastBlock[slot] = blockNumber;
+                stride[slot] = 0;
+                confidence[slot] = 0;
+                lastUse[slot] = tick;
+                return Collections.emptyList();
+            }
+
+            int delta = blockNumber - lastBlock[slot];
+            confidence[slot] = delta == stride[slot] ? confidence[slot] + 1 : 0;
+            stride[slot] = delta;
+            lastBlock[slot] = blockNumber;
+            lastUse[slot] = tick;
+            if (confidence[slot] < 1) return Collections.emptyList();
+
+            List<Integer> targets = new ArrayList<>();
+            for (int i = 1; i <= DEGREE; i++) {
+                int target = blockNumber + delta * i;
+                if (target < 0 || target > MAX_BLOCK) break;
+                targets.add(target);
+            }
+            return targets;
+        }
+        public String getName() { return "stream"; }
+    }
+
+    /*
+     * 预取统计
+     * 准确率 = 有用预取 / 发出预取，覆盖率 = 有用预取 / (有用预取 + 剩余需求缺失)，
+     * 及时性以预取填入到首次使用之间的需求访存次数衡量(距离过短意味着在真实时序下可能来不及)
+     */
+    class Stats {
+        int issued;             // 发出的预取数
+        int useful;             // 被需求访问命中的预取块数
+        int demandMisses;       // 剩余的需求缺失数
+        int unusedEvicted;      // 未被使用即被替换出节点的预取块数
+        int unusedInvalidated;  // 未被使用即被其他节点写作废的预取块数(预取引入的额外作废)
+        int downgrades;         // 预取读迫使其他节点的MODIFIED块写回并降级的次数
+        long leadDistance;      // 有用预取从填入到首次使用的访存次数之和
+
+        double accuracy() { return issued == 0 ? 0 : (double) useful / issued; }
+
+        double coverage() { return useful + demandMisses == 0 ? 0 : (double) useful / (useful + demandMisses); }
+
+        double averageLead() { return useful == 0 ? 0 : (double) leadDistance / useful; }
+
+        String summary(Prefetcher prefetcher) {
+            return String.format("预取[%s] 发出:%d 准确率:%.0f%% 覆盖率:%.0f%% 平均提前:%.1f 未用替换:%d 未用作废:%d 降级:%d",
+                prefetcher.getName(), issued, accuracy() * 100, coverage() * 100, averageLead(),
+                unusedEvicted, unusedInvalidated, downgrades);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package Demo1;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * 模拟器的JFR自定义事件，用于在JMC中把模拟器自身的耗时与被模拟系统的协议行为放在一起分析
+ * 所有事件默认关闭，由记录配置coherence.jfc打开(其中也包含CPU采样、GC等JDK事件)：
+ *   java -XX:StartFlightRecording:settings=coherence.jfc,filename=sim.jfr Demo1.Snoop
+ * 未开启记录时shouldCommit()恒为false，事件对象经逃逸分析消除，热路径上只剩一次判断。
+ * Request/Access/Render为持续事件，分别包住一批请求、一次访存和一次界面刷新；其余为瞬时事件
+ */
+class SimEvents {
+    static final String CATEGORY = "Cache一致性模拟器";
+
+    @Name("demo1.Request")
+    @Label("请求批处理")
+    @Description("processRequest/脚本提交的一批请求(校验之后)，含执行与界面刷新")
+    @Category(CATEGORY)
+    @Enabled(false)
+    static class RequestEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("请求数") int requests;
+    }
+
+    @Name("demo1.Access")
+    @Label("访存")
+    @Description("执行一次访存请求(不含界面刷新)")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class AccessEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("CPU") String cpu;
+        @Label("地址") String address;
+        @Label("操作") String operation;
+        @Label("访问后状态") String state;
+    }
+
+    @Name("demo1.Miss")
+    @Label("缺失")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class MissEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("CPU") String cpu;
+        @Label("地址") String address;
+        @Label("写") boolean write;
+        @Label("缺失类型") String missType;
+    }
+
+    @Name("demo1.Invalidation")
+    @Label("作废扇出")
+    @Description("一次写作废了多少个其他节点的副本")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class InvalidationEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("写者CPU") String cpu;
+        @Label("地址") String address;
+        @Label("作废副本数") int targets;
+    }
+
+    @Name("demo1.WriteBack")
+    @Label("写回")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class WriteBackEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("CPU") String cpu;
+        @Label("地址") String address;
+        @Label("写回前状态") String state;
+    }
+
+    @Name("demo1.DirectoryTransition")
+    @Label("目录状态转换")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class DirectoryTransitionEvent extends Event {
+        @Label("请求CPU") String cpu;
+        @Label("块地址") String address;
+        @Label("归属节点") String home;
+        @Label("原状态") String fromState;
+        @Label("新状态") String toState;
+    }
+
+    @Name("demo1.Render")
+    @Label("界面刷新")
+    @Category(CATEGORY)
+    @Enabled(false)
+    static class RenderEvent extends Event {
+        @Label("模拟器") String simulator;
+        @Label("视图") String view;
+    }
+
+    static void miss(String simulator, String cpu, String address, boolean write, MissClassifier.MissType type) {
+        MissEvent event = new MissEvent();
+        if (!event.shouldCommit()) return;
+        event.simulator = simulator;
+        event.cpu = cpu;
+        event.address = address;
+        event.write = write;
+        event.missType = type.label;
+        event.commit();
+    }
+
+    static void invalidation(String simulator, String cpu, String address, int targets) {
+        InvalidationEvent event = new InvalidationEvent();
+        if (!event.shouldCommit()) return;
+        event.simulator = simulator;
+        event.cpu = cpu;
+        event.address = address;
+        event.targets = targets;
+        event.commit();
+    }
+
+    static void writeBack(String simulator, String cpu, String address, Object state) {
+        WriteBackEvent event = new WriteBackEvent();
+        if (!event.shouldCommit()) return;
+        event.simulator = simulator;
+        event.cpu = cpu;
+        event.address = address;
+        event.state = String.valueOf(state);
+        event.commit();
+    }
+
+    static void directoryTransition(String cpu, String address, String home, Object fromState, Object toState) {
+        DirectoryTransitionEvent event = new DirectoryTransitionEvent();
+        if (!event.shouldCommit()) return;
+        event.cpu = cpu;
+        event.address = address;
+        event.home = home;
+        event.fromState = String.valueOf(fromState);
+        event.toState = String.valueOf(toState);
+        event.commit();
+    }
+
+    /*
+     * 开始一次界面刷新，刷新结束后调用rendered()
+     */
+    static RenderEvent render() {
+        RenderEvent event = new RenderEvent();
+        event.begin();
+        return event;
+    }
+
+    static void rendered(RenderEvent event, String simulator, String view) {
+        if (!event.shouldCommit()) return;
+        event.simulator = simulator;
+        event.view = view;
+        event.commit();
+    }
+}
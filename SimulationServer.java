@@ -0,0 +1,222 @@
+package Demo1;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+/*
+ * 本地套接字仿真服务(无界面)：插桩程序把访存记录流式发送过来，所有连接共用一个TraceEngine
+ * 单线程Selector + 非阻塞通道：每个连接有自己的输入/输出直接缓冲区，一次read读入尽可能多的记录，
+ * 缓冲区中完整的记录整批交给引擎，结果攒在输出缓冲区里一次write发出，不按记录做系统调用。
+ * 各连接的请求按到达的批次交错进入引擎；每轮每个连接最多处理一个缓冲区，避免一个快客户端独占引擎。
+ * 背压：输出缓冲区放不下结果时停止处理，输入缓冲区满后不再关注OP_READ，客户端的发送随之被TCP窗口阻塞，
+ * 结果写出后再恢复读取。
+ *
+ * 协议(大端，与TraceFile一致)：
+ *   客户端先发8字节握手: int MAGIC, int 模式(0逐条结果 1汇总)
+ *   随后每条记录8字节，为TraceEngine.pack打包的long；REPORT(-1)请求一份本连接的统计报告
+ *   逐条模式下每条记录回复1字节结果，见HIT等标志位；
+ *   统计报告为 int REPORT_MAGIC 加本连接的10个计数(long，顺序同TraceEngine.Stats)；
+ *   客户端关闭发送方向(shutdownOutput)后，服务端发送最终报告并关闭连接
+ *
+ * 用法: java -Dserver.port=7420 [-Dserver.socket=/tmp/cache.sock] Demo1.SimulationServer
+ */
+public class SimulationServer {
+    static final int NODES = Integer.getInteger("server.nodes", 4);
+    static final int SETS = Integer.getInteger("server.sets", 16);
+    static final int WAYS = Integer.getInteger("server.ways", 1);
+    static final int BLOCK_BYTES = Integer.getInteger("server.block", 16);
+    static final String PROTOCOL = System.getProperty("server.protocol", "MSI");
+    static final int PORT = Integer.getInteger("server.port", 7420);        // 只监听127.0.0.1
+    static final String SOCKET = System.getProperty("server.socket");       // 设置时改用Unix域套接字
+    static final int BUFFER = Math.max(1024, Integer.getInteger("server.buffer", 1 << 16));
+    static final int MAX_CLIENTS = Integer.getInteger("server.max.clients", 0); // 服务这么多连接后退出，0为一直运行
+
+    static final int MAGIC = 0x43535356;        // "CSSV"
+    static final int REPORT_MAGIC = 0x43535250; // "CSRP"
+    static final int PER_ACCESS = 0;
+    static final int AGGREGATE = 1;
+    static final long REPORT = -1L;             // pack只用低48位，不会与正常记录冲突
+    static final int RECORD_BYTES = 8;
+    static final int REPORT_BYTES = 4 + 10 * 8;
+
+    // 逐条结果的标志位
+    static final int HIT = 1;               // 本地完成，无总线事务
+    static final int UPGRADE = 2;           // 写命中SHARED块，BusUpgr
+    static final int CACHE_TO_CACHE = 4;    // 数据由其他节点的MODIFIED副本提供
+    static final int WRITE_BACK = 8;        // 替换或监听降级引起写回
+    static final int INVALIDATE = 16;       // 作废了其他节点的副本
+
+    final TraceEngine engine = new TraceEngine(NODES, SETS, WAYS, BLOCK_BYTES, PROTOCOL);
+    private final TraceEngine.Stats before = new TraceEngine.Stats(); // 每次访存前的全局统计，复用避免分配
+    private int served;
+
+    // 一个客户端连接
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER);    // 写模式：已读入未处理的字节
+        final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER);   // 写模式：待发送的字节
+        final TraceEngine.Stats stats = new TraceEngine.Stats();
+        int mode = -1;              // 握手前为-1
+        boolean inputClosed;        // 客户端已关闭发送方向
+        boolean finished;           // 最终报告已放入输出缓冲区
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /*
+     * 事件循环，直到服务的连接数达到MAX_CLIENTS
+     */
+    void serve(ServerSocketChannel server) throws IOException {
+        try (Selector selector = Selector.open()) {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (MAX_CLIENTS <= 0 || served < MAX_CLIENTS) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = server.accept();
+                        if (channel == null) continue;
+                        channel.configureBlocking(false);
+                        channel.register(selector, SelectionKey.OP_READ, new Client(channel));
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        service(key, client);
+                    } catch (IOException | IllegalArgumentException e) {
+                        System.err.println("连接异常关闭: " + e.getMessage());
+                        close(key, client);
+                    }
+                }
+            }
+        }
+    }
+
+    // 处理一个就绪的连接：读入、整批仿真、写出，然后按缓冲区状态调整关注的事件
+    private void service(SelectionKey key, Client client) throws IOException {
+        if (key.isReadable() && client.in.hasRemaining() && client.channel.read(client.in) < 0) client.inputClosed = true;
+        process(client);
+        if (client.out.position() > 0) {
+            client.out.flip();
+            client.channel.write(client.out);
+            client.out.compact();
+        }
+        if (client.finished && client.out.position() == 0) {
+            close(key, client);
+            return;
+        }
+        int ops = 0;
+        if (!client.inputClosed && client.in.hasRemaining()) ops |= SelectionKey.OP_READ;
+        // 输出未写完，或输入已满等待输出腾出空间
+        if (client.out.position() > 0 || client.in.position() >= RECORD_BYTES) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    /*
+     * 把输入缓冲区中完整的记录交给引擎，直到记录用完或输出缓冲区放不下下一份结果
+     */
+    private void process(Client client) {
+        ByteBuffer in = client.in, out = client.out;
+        in.flip();
+        if (client.mode < 0 && in.remaining() >= 8) {
+            int magic = in.getInt();
+            int mode = in.getInt();
+            if (magic != MAGIC) throw new IllegalArgumentException(String.format("握手魔数错误: %08X", magic));
+            if (mode != PER_ACCESS && mode != AGGREGATE) throw new IllegalArgumentException("未知模式: " + mode);
+            client.mode = mode;
+        }
+        TraceEngine.Stats global = engine.stats;
+        while (client.mode >= 0 && in.remaining() >= RECORD_BYTES && out.remaining() >= REPORT_BYTES) {
+            long ref = in.getLong();
+            if (ref == REPORT) {
+                report(client);
+                continue;
+            }
+            before.copyFrom(global);
+            engine.access(ref);
+            client.stats.addDifference(global, before);
+            if (client.mode == PER_ACCESS) out.put((byte) result(global, before));
+        }
+        boolean drained = in.remaining() < RECORD_BYTES;
+        in.compact();
+        if (client.inputClosed && drained && !client.finished && out.remaining() >= REPORT_BYTES) {
+            if (in.position() > 0) System.err.println("丢弃末尾不完整的记录: " + in.position() + "字节");
+            if (client.mode >= 0) report(client);
+            client.finished = true;
+        }
+    }
+
+    // 由一次访存前后的全局统计差分出结果标志
+    private static int result(TraceEngine.Stats after, TraceEngine.Stats before) {
+        int flags = 0;
+        if (after.busUpgrades != before.busUpgrades) flags |= UPGRADE;
+        else if (after.misses() == before.misses()) flags |= HIT;
+        if (after.cacheToCache != before.cacheToCache) flags |= CACHE_TO_CACHE;
+        if (after.writeBacks != before.writeBacks) flags |= WRITE_BACK;
+        if (after.invalidations != before.invalidations) flags |= INVALIDATE;
+        return flags;
+    }
+
+    private static void report(Client client) {
+        TraceEngine.Stats stats = client.stats;
+        client.out.putInt(REPORT_MAGIC)
+            .putLong(stats.accesses).putLong(stats.writes).putLong(stats.readHits).putLong(stats.writeHits)
+            .putLong(stats.busReads).putLong(stats.busReadExclusives).putLong(stats.busUpgrades)
+            .putLong(stats.invalidations).putLong(stats.cacheToCache).putLong(stats.writeBacks);
+    }
+
+    private void close(SelectionKey key, Client client) throws IOException {
+        key.cancel();
+        client.channel.close();
+        served++;
+        System.out.println("连接 " + served + " 结束 " + client.stats.summary());
+        System.out.println("全局 " + engine.stats.summary());
+    }
+
+    static ServerSocketChannel open() throws IOException {
+        if (SOCKET != null) {
+            Path path = Paths.get(SOCKET);
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                // 只删除上次运行留下的套接字文件，普通文件、目录和链接可能是写错的路径
+                if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)
+                        || Files.isSymbolicLink(path)) {
+                    throw new IOException("路径已存在且不是套接字: " + path);
+                }
+                Files.delete(path);
+            }
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(path));
+            return server;
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", PORT));
+        return server;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulationServer simulation = new SimulationServer();
+        try (ServerSocketChannel server = open()) {
+            System.out.println("仿真服务监听 " + server.getLocalAddress() + "  节点:" + NODES + " 组:" + SETS
+                + " 相联度:" + WAYS + " 块:" + BLOCK_BYTES + "B 协议:" + PROTOCOL);
+            simulation.serve(server);
+        }
+    }
+}
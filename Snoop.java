@@ -21,9 +21,32 @@ public class Snoop extends JFrame {
     private static final int NUM_CPU_NODES = 4;	// CPU节点数量
     private static final int CACHE_BLOCKS = 16;	// 每个CPU的缓存块数量
     private static final int BLOCK_SIZE = 16;	// 每个缓存块的数据大小(字节)
+    // 每个CPU的牺牲缓存项数(2~16)，可通过 -Dvictim.entries=N 配置
+    private static final int VICTIM_ENTRIES = Math.max(2, Math.min(16, Integer.getInteger("victim.entries", 4)));
+    // 预取器类型，可通过 -Dprefetcher=none|next-line|stream|adjacent 配置，界面上也可切换
+    private static String prefetcherType = System.getProperty("prefetcher", "none");
+    // 写缓冲项数，可通过 -Dstore.buffer.entries=N 配置
+    private static final int STORE_BUFFER_ENTRIES = Math.max(1, Integer.getInteger("store.buffer.entries", 8));
+    private static final int STORE_DRAIN_PER_CYCLE = 1; // 每个周期每个节点后台提交的写缓冲项数
+    // 每个节点的MSHR项数与缺失延迟(周期)，可通过 -Dmshr.entries=N -Dmshr.latency=N 配置
+    private static final int MSHR_ENTRIES = Math.max(1, Integer.getInteger("mshr.entries", 4));
+    private static final int MSHR_LATENCY = Math.max(1, Integer.getInteger("mshr.latency", 4));
+    private static final String MSHR_MERGED = "MSHR合并";
+    // 4个4MB存储节点按地址高2位交叉编址，热图中作为归属节点
+    private static final String[] MEMORY_NODE_IDS = {"M0", "M1", "M2", "M3"};
+    private static final int DATA_MESSAGE_BYTES = EnergyModel.HEADER_BYTES + BLOCK_SIZE; // 总线上一次块传输
+    private static final long REPLAY_SLICE_NANOS = 20_000_000; // 回放时每次占用事件分派线程的时间，其余时间留给重绘
+    // 内存模型：SC下写直接获取所有权，TSO下写进入写缓冲，可通过 -Dmemory.model=SC|TSO 配置
+    private static String memoryModel = System.getProperty("memory.model", "SC");
 
-    // 状态枚举
-    enum CacheState { INVALID("I"), SHARED("S"), MODIFIED("M");
+    // 一致性协议：MSI(写作废)、Dragon/Firefly(写更新)、Competitive(写更新，连续N次未使用的更新后自我作废)
+    // 可通过 -Dprotocol=MSI|Dragon|Firefly|Competitive 配置，界面上也可切换
+    private static String coherenceProtocol = System.getProperty("protocol", "MSI");
+    // 竞争更新的阈值N，可通过 -Dupdate.threshold=N 配置
+    private static final int UPDATE_THRESHOLD = Math.max(1, Integer.getInteger("update.threshold", 4));
+
+    // 状态枚举(写更新协议额外使用E和Sm；SHARED在Dragon中即Sc)
+    enum CacheState { INVALID("I"), SHARED("S"), MODIFIED("M"), EXCLUSIVE("E"), SHARED_MODIFIED("Sm");
         private final String abbr;
         CacheState(String abbr) { this.abbr = abbr; }
         public String getAbbr() { return abbr; }
@@ -33,11 +56,73 @@ public class Snoop extends JFrame {
     static class CPUNode {
         String id;					// CPU节点标识符
         CacheBlock[] cacheBlocks;	// 缓存块数组
+        VictimCache victimCache;	// 牺牲缓存
+        Prefetcher prefetcher;		// 硬件预取器
+        Prefetcher.Stats prefetchStats = new Prefetcher.Stats(); // 预取统计
+        long accessCount;			// 本节点的需求访存次数
+        StoreBuffer storeBuffer = new StoreBuffer(STORE_BUFFER_ENTRIES); // 写缓冲(TSO模式)
+        MissStatusRegisters mshr = new MissStatusRegisters(MSHR_ENTRIES); // 缺失状态保持寄存器
 
         public CPUNode(String id) {
             this.id = id;
             this.cacheBlocks = new CacheBlock[CACHE_BLOCKS];
             Arrays.setAll(cacheBlocks, i -> new CacheBlock());
+            this.victimCache = new VictimCache(VICTIM_ENTRIES);
+            this.prefetcher = Prefetcher.create(prefetcherType);
+        }
+    }
+
+    /*
+     * 牺牲缓存(Victim Cache)：全相联，LRU替换
+     * 保存被直接映射Cache替换出的块，缺失时先于总线查找
+     */
+    static class VictimCache {
+        final int capacity;
+        // 块地址(tag+index) -> 缓存块，按访问顺序排列(最久未使用在前)
+        final LinkedHashMap<String, CacheBlock> entries = new LinkedHashMap<>(16, 0.75f, true);
+        int avoidedMisses;		// 命中牺牲缓存而免去的总线访问次数
+        int avoidedWriteBacks;	// 脏块被重新取回而免去的写回次数
+
+        VictimCache(int capacity) { this.capacity = capacity; }
+
+        // 查找有效块，未命中返回null
+        CacheBlock lookup(String blockAddress) {
+            CacheBlock block = entries.get(blockAddress);
+            return block != null && block.state != CacheState.INVALID ? block : null;
+        }
+
+        CacheBlock remove(String blockAddress) {
+            return entries.remove(blockAddress);
+        }
+
+        // 放入被替换的块，返回被挤出的最久未使用块(无则返回null)
+        CacheBlock insert(CacheBlock block) {
+            entries.put(block.tag + block.index, block);
+            if (entries.size() <= capacity) return null;
+            Iterator<CacheBlock> it = entries.values().iterator();
+            CacheBlock evicted = it.next();
+            it.remove();
+            return evicted;
+        }
+    }
+
+    /*
+     * 总线统计：事务数、搬运的数据字数，以及写更新相对写作废省去的缺失
+     */
+    static class BusStats {
+        int busReads;           // 读缺失总线事务
+        int busInvalidations;   // 作废广播
+        int busUpdates;         // 更新广播
+        int writeBacks;         // 写回主存
+        int writeThroughs;      // Firefly随更新广播写穿主存(不另占总线事务，也不另计搬运字数)
+        long wordsMoved;        // 总线上搬运的数据字数(块传输计16，更新只计变化的字)
+        int missesAvoided;      // 收到更新的副本随后被本地命中(写作废下会缺失)
+        int selfInvalidations;  // 竞争更新中因连续未使用而自我作废的副本
+
+        String summary() {
+            return String.format("协议:%s 总线读:%d 作废:%d 更新:%d 写回:%d 写穿:%d 搬运字数:%d 省去缺失:%d 自我作废:%d",
+                coherenceProtocol, busReads, busInvalidations, busUpdates, writeBacks, writeThroughs, wordsMoved,
+                missesAvoided, selfInvalidations);
         }
     }
 
@@ -50,6 +135,9 @@ public class Snoop extends JFrame {
         String[] data;		 // 缓存块数据(16字节)
         // MODIFIED状态时为true，写回主存后重置为false
         boolean isDirty = false; 
+        boolean prefetched = false;	 // 由预取填入且尚未被需求访问使用
+        int unusedUpdates;			 // 写更新协议：上次本地访问以来收到的更新次数
+        long prefetchedAt;			 // 预取填入时节点的访存计数
 
         public CacheBlock() {
             this.tag = "-";
@@ -61,6 +149,7 @@ public class Snoop extends JFrame {
 
     // 主界面组件
     private JPanel cpuNodesPanel;		// CPU节点显示面板
+    private JLabel busStatsLabel;		// 总线统计显示
     private JTextArea detailArea;       // 请求详情显示区域
     private JList<String> historyList;  // 请求历史列表
     private DefaultListModel<String> historyModel;  // 历史列表数据模型
@@ -68,6 +157,15 @@ public class Snoop extends JFrame {
 
     // 系统状态
     private CPUNode[] cpuNodes;			 // CPU节点数组
+    private long cycle;					 // 仿真周期，每个请求推进一个周期
+    private BusStats busStats = new BusStats(); // 总线统计
+    // 缺失分类，影子Cache容量取片上总容量(直接映射Cache+牺牲缓存)
+    private MissClassifier missClassifier = new MissClassifier(CACHE_BLOCKS + VICTIM_ENTRIES);
+    private Atomics atomics = new Atomics(); // 原子操作与锁行争用统计
+    private AccessHeatmap heatmap;       // 访问热图
+    private JFrame heatmapFrame;         // 热图窗口(首次打开时创建)
+    private EnergyModel energy;          // 能耗记账，CPU节点之后依次为各存储节点
+    private javax.swing.Timer replayTimer; // 文件回放的分片定时器
     // 请求历史记录
     private List<Map<String, Object>> requestHistory = new ArrayList<>();
 
@@ -78,6 +176,8 @@ public class Snoop extends JFrame {
         initUI();		// 初始化用户界面
         initMainMemory();//初始化主存
         initSystem();	// 初始化系统状态
+        heatmap = new AccessHeatmap(Arrays.stream(cpuNodes).map(n -> n.id).toArray(String[]::new), MEMORY_NODE_IDS, CACHE_BLOCKS);
+        energy = createEnergyModel();
         renderUI();		// 渲染用户界面
     }
 
@@ -94,6 +194,7 @@ public class Snoop extends JFrame {
     }
 
     private void renderUI() {
+        SimEvents.RenderEvent event = SimEvents.render();
         // 顶部控制面板
         JPanel controlPanel = createControlPanel();
         
@@ -118,11 +219,19 @@ public class Snoop extends JFrame {
         // 整体布局
         JPanel mainPanel = new JPanel(new BorderLayout(15, 15));
         mainPanel.setBorder(new EmptyBorder(15, 15, 15, 15));
-        mainPanel.add(controlPanel, BorderLayout.NORTH);
-        mainPanel.add(cpuNodesPanel, BorderLayout.CENTER);
+        JPanel topPanel = new JPanel(new BorderLayout(15, 15));
+        topPanel.add(controlPanel, BorderLayout.CENTER);
+        topPanel.add(createScriptPanel(), BorderLayout.EAST);
+        mainPanel.add(topPanel, BorderLayout.NORTH);
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(cpuNodesPanel, BorderLayout.CENTER);
+        busStatsLabel = new JLabel(statsText());
+        centerPanel.add(busStatsLabel, BorderLayout.SOUTH);
+        mainPanel.add(centerPanel, BorderLayout.CENTER);
         mainPanel.add(bottomPane, BorderLayout.SOUTH);
         
         add(mainPanel);
+        SimEvents.rendered(event, "Snoop", "全部");
     }
 
     /*
@@ -149,12 +258,12 @@ public class Snoop extends JFrame {
         panel.add(new JLabel("操作类型:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 1;
-        JComboBox<String> operationCombo = new JComboBox<>(new String[]{"读", "写"});
+        JComboBox<String> operationCombo = new JComboBox<>(Atomics.OPERATIONS);
         panel.add(operationCombo, gbc);
 
         // 写入值
         gbc.gridx = 0; gbc.gridy = 2;
-        panel.add(new JLabel("写入值 (16字节十六进制):"), gbc);
+        panel.add(new JLabel("写入值/原子操作数:"), gbc);
 
         gbc.gridx = 1; gbc.gridy = 2;
         JTextField writeValueField = new JTextField("0000000000000000", 20);
@@ -169,22 +278,152 @@ public class Snoop extends JFrame {
         cpuCombo = new JComboBox<>(cpuIds);
         panel.add(cpuCombo, gbc);
 
+        // 预取器选择(切换后各节点统计清零)
+        gbc.gridx = 0; gbc.gridy = 4;
+        panel.add(new JLabel("预取器:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 4;
+        JComboBox<String> prefetcherCombo = new JComboBox<>(Prefetcher.TYPES);
+        prefetcherCombo.setSelectedItem(prefetcherType);
+        prefetcherCombo.addActionListener(e -> changePrefetcher((String) prefetcherCombo.getSelectedItem()));
+        panel.add(prefetcherCombo, gbc);
+
+        // 内存模型选择(切回SC时先排空写缓冲)
+        gbc.gridx = 0; gbc.gridy = 5;
+        panel.add(new JLabel("内存模型:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 5;
+        JComboBox<String> modelCombo = new JComboBox<>(new String[]{"SC", "TSO"});
+        modelCombo.setSelectedItem(memoryModel);
+        modelCombo.addActionListener(e -> changeMemoryModel((String) modelCombo.getSelectedItem()));
+        panel.add(modelCombo, gbc);
+
+        // 一致性协议选择(切换时重置系统)
+        gbc.gridx = 0; gbc.gridy = 6;
+        panel.add(new JLabel("一致性协议:"), gbc);
+
+        gbc.gridx = 1; gbc.gridy = 6;
+        JComboBox<String> protocolCombo = new JComboBox<>(new String[]{"MSI", "Dragon", "Firefly", "Competitive"});
+        protocolCombo.setSelectedItem(coherenceProtocol);
+        protocolCombo.addActionListener(e -> {
+            resetSystem();
+            coherenceProtocol = (String) protocolCombo.getSelectedItem();
+            busStatsLabel.setText(statsText());
+        });
+        panel.add(protocolCombo, gbc);
+
         // 按钮
-        gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 2;
+        gbc.gridx = 0; gbc.gridy = 7; gbc.gridwidth = 2;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton executeBtn = new JButton("执行请求");
         JButton resetBtn = new JButton("重置系统");
+        JButton missBtn = new JButton("缺失分类");
+        JButton atomicBtn = new JButton("锁行争用");
+        JButton heatmapBtn = new JButton("访问热图");
+        JButton energyBtn = new JButton("能耗");
         
         executeBtn.addActionListener(e -> processRequest(addressField, operationCombo, writeValueField));
         resetBtn.addActionListener(e -> resetSystem());
+        missBtn.addActionListener(e -> showMissReport());
+        atomicBtn.addActionListener(e -> showAtomicReport());
+        heatmapBtn.addActionListener(e -> showHeatmap());
+        energyBtn.addActionListener(e -> showEnergyReport());
         
         buttonPanel.add(executeBtn);
         buttonPanel.add(resetBtn);
+        buttonPanel.add(missBtn);
+        buttonPanel.add(atomicBtn);
+        buttonPanel.add(heatmapBtn);
+        buttonPanel.add(energyBtn);
         panel.add(buttonPanel, gbc);
 
         return panel;
     }
 
+    /*
+     * 创建批量脚本面板：每行一条请求，一次执行全部并只刷新一次界面
+     */
+    private JPanel createScriptPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(new TitledBorder("批量脚本 (每行: CPU节点 读/写/原子操作 地址 [写入值/操作数])"));
+
+        JTextArea scriptArea = new JTextArea("CPU00 读 0x000120\nCPU01 写 0x000120 0123456789ABCDEF\n", 8, 40);
+        panel.add(new JScrollPane(scriptArea), BorderLayout.CENTER);
+
+        // 锁模板：按所选锁算法生成各CPU交替执行的脚本
+        JComboBox<String> lockCombo = new JComboBox<>(LockWorkloads.KINDS);
+        JButton lockBtn = new JButton("生成");
+        lockBtn.addActionListener(e -> scriptArea.setText(LockWorkloads.script((String) lockCombo.getSelectedItem(),
+            Arrays.stream(cpuNodes).map(n -> n.id).toArray(String[]::new))));
+        JButton runBtn = new JButton("执行脚本");
+        runBtn.addActionListener(e -> runScript(scriptArea.getText()));
+        JButton replayBtn = new JButton("回放文件");
+        replayBtn.addActionListener(e -> replayFile());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(new JLabel("锁模板:"));
+        buttonPanel.add(lockCombo);
+        buttonPanel.add(lockBtn);
+        buttonPanel.add(runBtn);
+        buttonPanel.add(replayBtn);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    /*
+     * 解析脚本文本(忽略空行和#注释)并批量执行
+     */
+    private void runScript(String script) {
+        List<Access> accesses = parseScript(Arrays.asList(script.split("\\R")));
+        if (accesses != null) processBatch(accesses);
+    }
+
+    // 逐行解析脚本，出错时提示行号并返回null
+    private List<Access> parseScript(List<String> lines) {
+        List<Access> accesses = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                accesses.add(Access.parse(line));
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "第" + (i + 1) + "行: " + ex.getMessage());
+                return null;
+            }
+        }
+        return accesses;
+    }
+
+    /*
+     * 回放脚本文件：按时间分片执行，每片之间让出事件分派线程，热图在回放过程中按帧率刷新
+     */
+    private void replayFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        List<Access> accesses;
+        try {
+            accesses = parseScript(java.nio.file.Files.readAllLines(chooser.getSelectedFile().toPath()));
+        } catch (java.io.IOException ex) {
+            JOptionPane.showMessageDialog(this, "读取失败: " + ex.getMessage());
+            return;
+        }
+        if (accesses == null || !validateBatch(accesses)) return;
+        if (replayTimer != null) replayTimer.stop();
+
+        showHeatmap();
+        SimEvents.RequestEvent request = new SimEvents.RequestEvent();
+        request.begin();
+        Iterator<Access> remaining = accesses.iterator();
+        replayTimer = new javax.swing.Timer(1, null);
+        replayTimer.addActionListener(e -> {
+            long deadline = System.nanoTime() + REPLAY_SLICE_NANOS;
+            while (remaining.hasNext() && System.nanoTime() < deadline) executeTraced(remaining.next());
+            if (remaining.hasNext()) return;
+            replayTimer.stop();
+            finishBatch(request, accesses.size());
+        });
+        replayTimer.start();
+    }
+
     /*
      * 创建CPU节点显示面板
      */
@@ -196,7 +435,7 @@ public class Snoop extends JFrame {
         // 为每个CPU节点创建一个面板
         for (CPUNode node : cpuNodes) {
             JPanel cpuPanel = new JPanel(new BorderLayout());
-            cpuPanel.setBorder(new TitledBorder(node.id));
+            cpuPanel.setBorder(new TitledBorder(nodeTitle(node)));
             
             JTable table = new JTable(createCacheTableModel(node));
             table.setRowHeight(25);
@@ -206,6 +445,7 @@ public class Snoop extends JFrame {
             table.getColumnModel().getColumn(3).setPreferredWidth(120);
             
             cpuPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+            cpuPanel.add(createBufferPanel(node), BorderLayout.SOUTH);
             panel.add(cpuPanel);
         }
         
@@ -235,40 +475,366 @@ public class Snoop extends JFrame {
         };
     }
 
-    private Map<String, String[]> mainMemory = new HashMap<>(); // 主存：地址→数据（16字节）
-    // 初始化主存
-    private void initMainMemory() {
-        // 模拟主存包含所有可能的地址（简化处理，实际可按需生成）
-        for (int i = 0; i < 0x100000; i++) { // 假设主存地址范围0x000000~0xFFFFF
-            String address = String.format("0x%06X", i);
-            mainMemory.put(address, new String[BLOCK_SIZE]);
-            Arrays.fill(mainMemory.get(address), "0"); // 初始数据全为0
+    // 节点面板标题，启用预取时附带预取统计
+    private String nodeTitle(CPUNode node) {
+        if (node.prefetcher instanceof Prefetcher.None) return node.id;
+        return node.id + "  " + node.prefetchStats.summary(node.prefetcher);
+    }
+
+    // 节点下方的牺牲缓存、写缓冲与MSHR面板
+    private JPanel createBufferPanel(CPUNode node) {
+        JPanel panel = new JPanel(new GridLayout(1, 3, 5, 5));
+        panel.add(createVictimPanel(node));
+        panel.add(createStoreBufferPanel(node));
+        panel.add(createMshrPanel(node));
+        return panel;
+    }
+
+    /*
+     * 创建写缓冲显示面板，标题中显示合并、转发、满停顿与排空延迟
+     */
+    private JPanel createStoreBufferPanel(CPUNode node) {
+        StoreBuffer storeBuffer = node.storeBuffer;
+        String[] columns = {"地址", "写入值", "合并"};
+        Object[][] data = new Object[storeBuffer.entries.size()][3];
+        int row = 0;
+        for (StoreBuffer.Entry entry : storeBuffer.entries) {
+            data[row][0] = entry.address;
+            data[row][1] = entry.value;
+            data[row][2] = entry.coalesced;
+            row++;
         }
+
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(storeBuffer.summary()));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
+    /*
+     * 创建MSHR显示面板，列出在途的块及数据到达前的剩余周期
+     */
+    private JPanel createMshrPanel(CPUNode node) {
+        MissStatusRegisters mshr = node.mshr;
+        String[] columns = {"块地址", "操作", "剩余周期", "合并"};
+        Object[][] data = new Object[mshr.entries.size()][4];
+        int row = 0;
+        for (MissStatusRegisters.Entry entry : mshr.entries) {
+            data[row][0] = "0X" + entry.blockAddress + "0";
+            data[row][1] = entry.write ? "写" : "读";
+            data[row][2] = Math.max(0, entry.readyAt - cycle);
+            data[row][3] = entry.merged;
+            row++;
+        }
+
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(mshr.summary()));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
+    /*
+     * 创建牺牲缓存显示面板，标题中显示免去的缺失与写回次数
+     */
+    private JPanel createVictimPanel(CPUNode node) {
+        VictimCache victimCache = node.victimCache;
+        String[] columns = {"块地址", "状态", "数据 (16字节)"};
+        Object[][] data = new Object[victimCache.entries.size()][3];
+        int row = 0;
+        for (CacheBlock block : victimCache.entries.values()) {
+            data[row][0] = block.tag + block.index;
+            data[row][1] = block.state.getAbbr();
+            data[row][2] = String.join("", block.data);
+            row++;
+        }
+
+        JTable table = new JTable(new DefaultTableModel(data, columns) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        });
+        table.setPreferredScrollableViewportSize(new Dimension(300, 60));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new TitledBorder(String.format("牺牲缓存 %d项 (免缺失:%d 免写回:%d)",
+            victimCache.capacity, victimCache.avoidedMisses, victimCache.avoidedWriteBacks)));
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
+    private BlockStore mainMemory;   // 主存：块号→数据（16字节），全0块不占存储
+    // 初始化主存(全0)
+    private void initMainMemory() {
+        mainMemory = new BlockStore();
     }
     
     /*
      * 处理内存请求
      */
     private void processRequest(JTextField addressField, JComboBox<String> operationCombo, JTextField writeValueField) {
-        String address = addressField.getText().toUpperCase();
-        String operation = (String) operationCombo.getSelectedItem();
-        String writeValue = writeValueField.getText().toUpperCase();
-        String targetCpuId = (String) cpuCombo.getSelectedItem();
-        CPUNode targetNode = getTargetNode(targetCpuId);
+        processBatch(Collections.singletonList(new Access(
+            (String) cpuCombo.getSelectedItem(),
+            (String) operationCombo.getSelectedItem(),
+            addressField.getText().toUpperCase(),
+            writeValueField.getText().toUpperCase())));
+    }
+
+    /*
+     * 批量处理访存请求：先统一校验，再依次执行，最后只刷新一次界面
+     */
+    public void processBatch(List<Access> accesses) {
+        if (!validateBatch(accesses)) return;
+        SimEvents.RequestEvent request = new SimEvents.RequestEvent();
+        request.begin();
+        for (Access access : accesses) executeTraced(access);
+        finishBatch(request, accesses.size());
+    }
+
+    // 校验全部请求，出错时提示并返回false
+    private boolean validateBatch(List<Access> accesses) {
+        Set<String> cpuIds = new HashSet<>();
+        for (CPUNode node : cpuNodes) cpuIds.add(node.id);
+        for (int i = 0; i < accesses.size(); i++) {
+            Access access = accesses.get(i);
+            String error = cpuIds.contains(access.cpuId) ? access.validate() : "目标节点不存在";
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, accesses.size() > 1 ? "第" + (i + 1) + "条请求: " + error : error);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 执行一条请求并记录JFR访存事件
+    private void executeTraced(Access access) {
+        SimEvents.AccessEvent event = new SimEvents.AccessEvent();
+        event.begin();
+        executeAccess(access);
+        if (event.shouldCommit()) {
+            event.simulator = "Snoop";
+            event.cpu = access.cpuId;
+            event.address = access.address;
+            event.operation = access.operation;
+            event.state = stateOf(getTargetNode(access.cpuId), access.address);
+            event.commit();
+        }
+    }
+
+    // 一批请求执行完后刷新界面并提交JFR请求事件
+    private void finishBatch(SimEvents.RequestEvent request, int requests) {
+        updateHistoryList();
+        renderCPUNodes();
+        if (request.shouldCommit()) {
+            request.simulator = "Snoop";
+            request.requests = requests;
+            request.commit();
+        }
+    }
 
-        if (!validateInput(address, operation, writeValue)) return;
+    // 缺失计入热图：该组的缺失热度，以及发往存储节点的流量
+    private void heatmapMiss(CPUNode node, String address, int cacheIndex) {
+        heatmap.miss(indexOf(node), cacheIndex);
+        heatmap.traffic(indexOf(node), memoryNodeOf(address));
+    }
+
+    // 地址所在的存储节点：地址高2位
+    private static int memoryNodeOf(String address) {
+        return Character.digit(address.charAt(2), 16) >> 2;
+    }
+
+    private int indexOf(CPUNode node) {
+        return Arrays.asList(cpuNodes).indexOf(node);
+    }
+
+    // 能耗模型中的节点：各CPU节点，随后是各存储节点
+    private EnergyModel createEnergyModel() {
+        String[] ids = new String[NUM_CPU_NODES + MEMORY_NODE_IDS.length];
+        for (int i = 0; i < NUM_CPU_NODES; i++) ids[i] = cpuNodes[i].id;
+        System.arraycopy(MEMORY_NODE_IDS, 0, ids, NUM_CPU_NODES, MEMORY_NODE_IDS.length);
+        return new EnergyModel(ids);
+    }
+
+    private static int memoryEnergyIndex(String address) {
+        return NUM_CPU_NODES + memoryNodeOf(address);
+    }
+
+    /*
+     * 打开访问热图窗口(非模态，可在执行请求与回放时保持打开)
+     */
+    private void showHeatmap() {
+        if (heatmapFrame == null) {
+            heatmapFrame = new JFrame("访问热图 (Snoop)");
+            heatmapFrame.add(heatmap);
+            heatmapFrame.pack();
+        }
+        heatmapFrame.setVisible(true);
+    }
+
+    // 节点中该地址所在块的状态(Cache或牺牲缓存)，用于JFR事件
+    private String stateOf(CPUNode node, String address) {
+        CacheBlock block = node.cacheBlocks[Integer.parseInt(address.substring(6, 7), 16)];
+        if (block.tag.equals(address.substring(2, 6)) && block.state != CacheState.INVALID) return block.state.getAbbr();
+        CacheBlock victim = node.victimCache.lookup(address.substring(2, 7));
+        return victim != null ? victim.state.getAbbr() : CacheState.INVALID.getAbbr();
+    }
+
+    /*
+     * 执行一次已校验的访存请求(不刷新界面)
+     */
+    private void executeAccess(Access access) {
+        String address = access.address;
+        String operation = access.operation;
+        String writeValue = access.writeValue;
+        String targetCpuId = access.cpuId;
+        CPUNode targetNode = getTargetNode(targetCpuId);
 
          // 解析地址，提取标签和索引
         String tag = address.substring(2, 6);  
         String index = address.substring(6, 7);  
         int cacheIndex = Integer.parseInt(index, 16); 
 
+        // 后台排空各节点写缓冲
+        cycle++;
+        heatmap.tick();
+        for (CPUNode node : cpuNodes) node.mshr.advance(cycle);
+        drainStoreBuffers();
+        boolean atomic = Atomics.isAtomic(operation);
+        if (atomic) {
+            // 原子操作兼作内存屏障：先提交本节点写缓冲中的全部写
+            while (!targetNode.storeBuffer.entries.isEmpty()) {
+                commitStore(targetNode, targetNode.storeBuffer.poll());
+            }
+        }
+
+        if (!atomic && memoryModel.equals("TSO")) {
+            StoreBuffer storeBuffer = targetNode.storeBuffer;
+            if (operation.equals("写")) {
+                // 写进入写缓冲后立即退休，缓冲满时停顿到最老一项提交
+                while (!storeBuffer.offer(address, writeValue, cycle)) {
+                    storeBuffer.fullStalls++;
+                    commitStore(targetNode, storeBuffer.poll());
+                }
+                recordRequest(address, operation, targetCpuId, false, "写缓冲");
+                return;
+            }
+            if (storeBuffer.forward(address) != null) {
+                // 读到本节点尚未提交的写，直接转发
+                targetNode.accessCount++;
+                energy.access(indexOf(targetNode));
+                recordRequest(address, operation, targetCpuId, true, "写缓冲转发");
+                return;
+            }
+        }
+
         // 实际判断缓存命中/缺失
         boolean cacheHit = checkCacheHit(targetNode, tag, cacheIndex);
+        // 缺失时先查找牺牲缓存，命中则无需访问总线
+        boolean victimHit = !cacheHit && swapFromVictimCache(targetNode, tag + index, cacheIndex);
         
-        recordRequest(address, operation, targetCpuId, cacheHit);
-        updateCache(targetNode, operation, writeValue, address, cacheHit);
-        renderCPUNodes();
+        // 原子操作按读或写进入一致性协议
+        String outcome = null;
+        if (atomic) {
+            Atomics.Result result = atomics.execute(targetCpuId, operation, address, writeValue,
+                coherentData(targetNode, address), cacheHit || victimHit);
+            outcome = result.text;
+            if (!result.performed) {
+                // SC预约已失效：直接失败，不发出总线请求
+                recordRequest(address, operation, targetCpuId, cacheHit || victimHit, outcome);
+                return;
+            }
+            operation = result.writes ? "写" : "读";
+            writeValue = result.writeValue;
+        } else {
+            atomics.access(targetCpuId, address, operation.equals("写"), cacheHit || victimHit);
+        }
+        
+        String mshrNote = trackMiss(targetNode, address, operation.equals("写"), cacheHit || victimHit, MSHR_LATENCY);
+        targetNode.accessCount++;
+        energy.access(indexOf(targetNode));
+        if (cacheHit || victimHit) noteLocalAccess(targetNode.cacheBlocks[cacheIndex]);
+        MissClassifier.MissType missType = missClassifier.access(targetCpuId, address, cacheHit || victimHit, operation.equals("写"));
+        if (missType != null) {
+            SimEvents.miss("Snoop", targetCpuId, address, operation.equals("写"), missType);
+            heatmapMiss(targetNode, address, cacheIndex);
+        }
+        String source = victimHit ? "牺牲缓存" : missType != null ? "缺失(" + missType.label + ")" : null;
+        if (outcome != null) source = source == null ? outcome : source + " " + outcome;
+        if (mshrNote != null) source = source == null ? mshrNote : source + " " + mshrNote;
+        // 合并到在途MSHR的访问数据尚未到达，显示为缺失
+        recordRequest(address, access.operation, targetCpuId, (cacheHit || victimHit) && !MSHR_MERGED.equals(mshrNote), source);
+        updateCache(targetNode, operation, writeValue, address, cacheHit || victimHit);
+        trainPrefetcher(targetNode, cacheIndex, cacheHit || victimHit);
+    }
+
+    /*
+     * 非阻塞Cache的时序：块已在途时合并为次级缺失，否则缺失分配MSHR(满时停顿，推进仿真周期)，命中即缺失下命中
+     * 返回历史记录中附加的说明，没有则返回null
+     */
+    private String trackMiss(CPUNode node, String address, boolean write, boolean cacheHit, int latency) {
+        MissStatusRegisters mshr = node.mshr;
+        if (cacheHit && mshr.lookup(address) == null) {
+            mshr.hit();
+            return null;
+        }
+        boolean merged = mshr.lookup(address) != null;
+        long stall = mshr.miss(address, write, cycle, latency);
+        cycle += stall;
+        if (merged) return MSHR_MERGED;
+        return stall > 0 ? "MSHR满停顿" + stall + "周期" : null;
+    }
+
+    // 每个节点后台提交已到期的写缓冲项
+    private void drainStoreBuffers() {
+        for (CPUNode node : cpuNodes) {
+            StoreBuffer storeBuffer = node.storeBuffer;
+            for (int i = 0; i < STORE_DRAIN_PER_CYCLE; i++) {
+                StoreBuffer.Entry oldest = storeBuffer.entries.peekFirst();
+                if (oldest == null || oldest.enqueuedAt >= cycle) break;
+                commitStore(node, storeBuffer.poll());
+            }
+        }
+    }
+
+    /*
+     * 提交一项写缓冲：获取所有权、作废其他副本并写入Cache，与SC模式下的写走相同路径
+     */
+    private void commitStore(CPUNode node, StoreBuffer.Entry entry) {
+        String address = entry.address;
+        String tag = address.substring(2, 6);
+        String index = address.substring(6, 7);
+        int cacheIndex = Integer.parseInt(index, 16);
+        boolean cacheHit = checkCacheHit(node, tag, cacheIndex) || swapFromVictimCache(node, tag + index, cacheIndex);
+        trackMiss(node, address, true, cacheHit, MSHR_LATENCY);
+
+        node.accessCount++;
+        energy.access(indexOf(node));
+        if (cacheHit) noteLocalAccess(node.cacheBlocks[cacheIndex]);
+        MissClassifier.MissType missType = missClassifier.access(node.id, address, cacheHit, true);
+        if (missType != null) {
+            SimEvents.miss("Snoop", node.id, address, true, missType);
+            heatmapMiss(node, address, cacheIndex);
+        }
+        atomics.access(node.id, address, true, cacheHit);
+        updateCache(node, "写", entry.value, address, cacheHit);
+        trainPrefetcher(node, cacheIndex, cacheHit);
+        node.storeBuffer.retired(entry, cycle);
     }
 
     // 检查缓存是否命中
@@ -277,49 +843,116 @@ public class Snoop extends JFrame {
         // 标签匹配且状态有效（非INVALID）
         return block.tag.equals(tag) && block.state != CacheState.INVALID;
     }
-    
+
+    /*
+     * 在牺牲缓存中查找块，命中则与直接映射Cache中对应位置的块交换
+     */
+    private boolean swapFromVictimCache(CPUNode node, String blockAddress, int cacheIndex) {
+        VictimCache victimCache = node.victimCache;
+        CacheBlock victim = victimCache.lookup(blockAddress);
+        if (victim == null) return false;
+
+        victimCache.remove(blockAddress);
+        victimCache.avoidedMisses++;
+        if (victim.isDirty) victimCache.avoidedWriteBacks++; // 脏块留在片上，省去一次写回
+        evictToVictimCache(node, cacheIndex);
+        node.cacheBlocks[cacheIndex] = victim;
+        return true;
+    }
+
+    // 将直接映射Cache中被替换的块移入牺牲缓存，牺牲缓存挤出的脏块写回主存
+    private void evictToVictimCache(CPUNode node, int cacheIndex) {
+        CacheBlock replaced = node.cacheBlocks[cacheIndex];
+        node.cacheBlocks[cacheIndex] = new CacheBlock();
+        if (replaced.state == CacheState.INVALID) return;
+
+        CacheBlock evicted = node.victimCache.insert(replaced);
+        if (evicted != null && evicted.prefetched) node.prefetchStats.unusedEvicted++;
+        if (evicted != null && evicted.state != CacheState.INVALID && evicted.isDirty) {
+            writeBackToMainMemory(node, evicted);
+        }
+    }
+
     /*
-     * 验证用户输入的有效性
+     * 训练预取器并发出预取：需求缺失或首次命中预取块时触发
      */
-    private boolean validateInput(String address, String operation, String writeValue) {
-    	// 验证地址格式(24位十六进制)
-    	if (!address.matches("^0X[0-9A-F]{6}$")) {
-            JOptionPane.showMessageDialog(this, "无效地址格式（需为24位十六进制）");
-            return false;
+    private void trainPrefetcher(CPUNode node, int cacheIndex, boolean cacheHit) {
+        CacheBlock block = node.cacheBlocks[cacheIndex];
+        Prefetcher.Stats stats = node.prefetchStats;
+        boolean trigger = !cacheHit;
+        if (block.prefetched) {
+            block.prefetched = false;
+            stats.useful++;
+            stats.leadDistance += node.accessCount - block.prefetchedAt;
+            trigger = true;
+        } else if (!cacheHit) {
+            stats.demandMisses++;
         }
-    	// 验证写入值格式(16字节十六进制)
-        if (operation.equals("写") && !writeValue.matches("^[0-9A-F]{16}$")) {
-            JOptionPane.showMessageDialog(this, "写入值必须为16字节十六进制");
-            return false;
+        if (!trigger) return;
+
+        for (int blockNumber : node.prefetcher.onMiss(Integer.parseInt(block.tag + block.index, 16))) {
+            prefetchBlock(node, blockNumber);
         }
-        return true;
     }
 
+    /*
+     * 预取一个块：与读缺失走相同路径(替换进牺牲缓存、总线监听、主存)
+     */
+    private void prefetchBlock(CPUNode node, int blockNumber) {
+        String blockAddress = String.format("%05X", blockNumber);
+        String tag = blockAddress.substring(0, 4);
+        int cacheIndex = blockNumber & 0xF;
+        if (checkCacheHit(node, tag, cacheIndex) || node.victimCache.lookup(blockAddress) != null) return;
+        if (!node.mshr.prefetch("0X" + blockAddress + "0", cycle, MSHR_LATENCY)) return; // 没有空闲MSHR时丢弃
+
+        evictToVictimCache(node, cacheIndex);
+        CacheBlock block = node.cacheBlocks[cacheIndex];
+        block.tag = tag;
+        block.index = blockAddress.substring(4);
+        block.offset = "0";
+        if (loadBlock("0X" + blockAddress + "0", block, node)) {
+            node.prefetchStats.downgrades++;
+        }
+        block.prefetched = true;
+        block.prefetchedAt = node.accessCount;
+        node.prefetchStats.issued++;
+    }
+    
     /*
      * 记录内存请求历史
      */
-    private void recordRequest(String address, String operation, String targetCpuId, boolean cacheHit) {
+    private void recordRequest(String address, String operation, String targetCpuId, boolean cacheHit, String source) {
         Map<String, Object> request = new HashMap<>();
         request.put("address", address);
         request.put("operation", operation);
         request.put("targetCpu", targetCpuId);
         request.put("cacheHit", cacheHit);
-        request.put("details", getOperationDetails(operation, cacheHit));
+        // 数据来源(牺牲缓存/写缓冲等)附在命中/缺失之后显示
+        String result = cacheHit ? "命中" : "缺失";
+        if (source != null) result = cacheHit ? result + "(" + source + ")" : source;
+        request.put("result", result);
+        request.put("details", getOperationDetails(operation, result));
 
         // 添加到历史记录的开头(最新记录显示在最前)
         requestHistory.add(0, request);
         // 保持最多10条记录
         if (requestHistory.size() > 10) requestHistory.remove(10);
-        updateHistoryList();
     }
 
     /*
      * 获取操作详情描述
      */
-    private List<String> getOperationDetails(String operation, boolean cacheHit) {
+    private List<String> getOperationDetails(String operation, String result) {
+        if (result.equals("写缓冲")) {
+            return Arrays.asList(
+                String.format("操作类型: %s", operation),
+                "写入写缓冲后立即退休",
+                "后台获取所有权并作废其他副本后提交到Cache"
+            );
+        }
         return Arrays.asList(
             String.format("操作类型: %s", operation),
-            String.format("Cache状态: %s", cacheHit ? "命中" : "缺失"),
+            String.format("Cache状态: %s", result),
             operation.equals("写") ? "更新缓存状态为MODIFIED" : "读取缓存数据"
         );
     }
@@ -332,19 +965,28 @@ public class Snoop extends JFrame {
     	String hexAddress = address.toUpperCase().substring(2);
     	char indexChar = hexAddress.charAt(4);
     	int cacheIndex = Character.digit(indexChar, 16); 
+    	if (!cacheHit) {
+    		// 被替换的块先进入牺牲缓存，由牺牲缓存决定何时写回主存
+    		evictToVictimCache(targetNode, cacheIndex);
+    	}
     	CacheBlock block = targetNode.cacheBlocks[cacheIndex];
     	block.index = address.substring(6, 7);
         block.tag = address.substring(2, 6); 
         block.offset= address.substring(7, 8);
         
     	if (!cacheHit) {
-    		if (block.state == CacheState.MODIFIED && block.isDirty) {
-                writeBackToMainMemory(block); // 写回主存
-            }
     		loadBlock(address, block, targetNode);
         }
     	 // 写操作时更新缓存数据和状态
         if (operation.equals("写")) {
+            if (!coherenceProtocol.equals("MSI")) {
+                writeUpdate(targetNode, block, address, writeValue.toUpperCase().split(""));
+                return;
+            }
+            if (block.state != CacheState.MODIFIED) {
+                busStats.busInvalidations++;
+                energy.broadcast(indexOf(targetNode));
+            }
             block.state = CacheState.MODIFIED;
             block.isDirty = true; // 写回法标记
             block.data = writeValue.toUpperCase().split(""); 
@@ -352,59 +994,211 @@ public class Snoop extends JFrame {
         }
     }
 
-    private void loadBlock(String address, CacheBlock block, CPUNode targetNode) {
+    /*
+     * 写更新协议的写操作
+     * E/M直接改为M；共享时把变化的字广播给其他副本：
+     * Dragon中写者成为Sm(拥有脏数据)，其他副本为Sc；Firefly同时写穿到主存，所有副本保持干净的S
+     */
+    private void writeUpdate(CPUNode node, CacheBlock block, String address, String[] newData) {
+        int changedWords = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (!newData[i].equals(block.data[i])) changedWords++;
+        }
+        block.data = newData;
+        if (block.state == CacheState.EXCLUSIVE || block.state == CacheState.MODIFIED) {
+            block.state = CacheState.MODIFIED;
+            block.isDirty = true;
+            return;
+        }
+
+        List<CacheBlock> copies = snoopCopies(address, node);
+        if (copies.isEmpty()) {
+            // 共享信号未置位：没有其他副本，无需广播
+            block.state = CacheState.MODIFIED;
+            block.isDirty = true;
+            return;
+        }
+
+        busStats.busUpdates++;
+        busStats.wordsMoved += Math.max(1, changedWords);
+        energy.broadcast(indexOf(node));
+        energy.message(indexOf(node), 1, EnergyModel.HEADER_BYTES + Math.max(1, changedWords));
+        for (CacheBlock copy : copies) {
+            energy.cacheAccess(indexOf(ownerOf(copy)));
+            copy.data = newData.clone();
+            copy.state = CacheState.SHARED;
+            copy.isDirty = false; // Dragon中脏数据的拥有权转给写者
+            copy.unusedUpdates++;
+            if (coherenceProtocol.equals("Competitive") && copy.unusedUpdates >= UPDATE_THRESHOLD) {
+                // 连续N次更新都未被本地使用，退化为作废
+                copy.state = CacheState.INVALID;
+                busStats.selfInvalidations++;
+                missClassifier.invalidate(ownerOf(copy).id, address);
+            }
+        }
+        if (coherenceProtocol.equals("Firefly")) {
+            // 写穿：主存从同一次更新广播中取得变化的字，不另占总线事务
+            String mainAddress = "0x" + block.tag + block.index + block.offset;
+            mainMemory.write(mainAddress, block.data);
+            energy.dramWrite(memoryEnergyIndex(mainAddress));
+            heatmap.traffic(indexOf(node), memoryNodeOf(mainAddress));
+            busStats.writeThroughs++;
+            block.state = CacheState.SHARED;
+            block.isDirty = false;
+        } else {
+            block.state = CacheState.SHARED_MODIFIED;
+            block.isDirty = true;
+        }
+    }
+
+    // 原子操作读到的一致数据：本节点有效副本，否则其他节点的有效副本，否则主存
+    private String[] coherentData(CPUNode node, String address) {
+        CacheBlock own = node.cacheBlocks[Integer.parseInt(address.substring(6, 7), 16)];
+        if (own.tag.equals(address.substring(2, 6)) && own.state != CacheState.INVALID) return own.data;
+        List<CacheBlock> copies = snoopCopies(address, node);
+        return copies.isEmpty() ? mainMemory.read(address) : copies.get(0).data;
+    }
+
+    // 查找持有该缓存块(直接映射Cache或牺牲缓存中)的节点
+    private CPUNode ownerOf(CacheBlock block) {
+        for (CPUNode node : cpuNodes) {
+            if (Arrays.asList(node.cacheBlocks).contains(block) || node.victimCache.entries.containsValue(block)) return node;
+        }
+        throw new IllegalStateException("缓存块不属于任何节点");
+    }
+
+    // 本地命中：收到过更新的副本若在写作废下早已被作废，这次命中即省去的一次缺失
+    private void noteLocalAccess(CacheBlock block) {
+        if (block.unusedUpdates > 0) busStats.missesAvoided++;
+        block.unusedUpdates = 0;
+    }
+
+    // 监听其他节点中该块的有效副本(直接映射Cache中的对应位置及牺牲缓存)
+    private List<CacheBlock> snoopCopies(String address, CPUNode excludeNode) {
+        String blockAddress = address.substring(2, 7);
+        int cacheIndex = Integer.parseInt(address.substring(6, 7), 16);
+        List<CacheBlock> copies = new ArrayList<>();
+        for (CPUNode node : cpuNodes) {
+            if (node == excludeNode) continue;
+            CacheBlock block = node.cacheBlocks[cacheIndex];
+            if (block.tag.equals(blockAddress.substring(0, 4)) && block.state != CacheState.INVALID) copies.add(block);
+            CacheBlock victim = node.victimCache.lookup(blockAddress);
+            if (victim != null) copies.add(victim);
+        }
+        return copies;
+    }
+
+    // 返回true表示其他节点的MODIFIED块因此被写回并降级
+    private boolean loadBlock(String address, CacheBlock block, CPUNode targetNode) {
     	String tag = address.substring(2, 6); 
-    	// 检查其他CPU的Cache中是否有该数据（状态为M或S）
+    	int cacheIndex = Integer.parseInt(address.substring(6, 7), 16);
+    	busStats.busReads++;
+    	busStats.wordsMoved += BLOCK_SIZE;
+    	energy.broadcast(indexOf(targetNode));
+    	energy.cacheAccess(indexOf(targetNode)); // 填充
+    	// 检查其他CPU的Cache中是否有该数据（直接映射，只需查看对应位置）
         for (CPUNode node : cpuNodes) {
             if (node == targetNode) continue; // 跳过目标节点
-            for (CacheBlock otherBlock : node.cacheBlocks) {
-                if (otherBlock.tag.equals(tag) && otherBlock.state != CacheState.INVALID) {
-                    block.data = otherBlock.data.clone(); 
-                    // 更新状态：若来源为M，则变为S（因数据被共享），并通知来源写回主存
-                    if (otherBlock.state == CacheState.MODIFIED) {
-                        String mainAddress = "0x" + otherBlock.tag + otherBlock.index + otherBlock.offset;
-                        mainMemory.put(mainAddress, otherBlock.data); // 写回主存
-                        otherBlock.state = CacheState.SHARED;
-                        otherBlock.isDirty = false;
-                        System.out.println("CPU " + node.id + " 的Cache块写回主存");
-                    }
-                    block.state = CacheState.SHARED; // 本地变为共享
-                    block.isDirty = false;
-                    return;
+            CacheBlock otherBlock = node.cacheBlocks[cacheIndex];
+            if (!otherBlock.tag.equals(tag) || otherBlock.state == CacheState.INVALID) otherBlock = null;
+            // 牺牲缓存同样参与监听
+            if (otherBlock == null) otherBlock = node.victimCache.lookup(address.substring(2, 7));
+            if (otherBlock != null) {
+                // 其他Cache读出整块放上总线
+                energy.cacheAccess(indexOf(node));
+                energy.message(indexOf(node), 1, DATA_MESSAGE_BYTES);
+                block.data = otherBlock.data.clone(); 
+                block.isDirty = false;
+                if (otherBlock.state == CacheState.EXCLUSIVE) otherBlock.state = CacheState.SHARED;
+                // Dragon中M块直接提供数据并成为Sm，不写回主存
+                if (coherenceProtocol.equals("Dragon") || coherenceProtocol.equals("Competitive")) {
+                    boolean downgraded = otherBlock.state == CacheState.MODIFIED;
+                    if (downgraded) otherBlock.state = CacheState.SHARED_MODIFIED;
+                    block.state = CacheState.SHARED;
+                    return downgraded;
+                }
+                // 更新状态：若来源为M，则变为S（因数据被共享），并通知来源写回主存
+                boolean downgraded = otherBlock.state == CacheState.MODIFIED;
+                if (downgraded) {
+                    busStats.writeBacks++;
+                    String mainAddress = "0x" + otherBlock.tag + otherBlock.index + otherBlock.offset;
+                    mainMemory.write(mainAddress, otherBlock.data); // 写回主存
+                    energy.dramWrite(memoryEnergyIndex(mainAddress)); // 主存直接接收总线上的数据，无需再传输
+                    SimEvents.writeBack("Snoop", node.id, mainAddress, otherBlock.state.getAbbr());
+                    heatmap.traffic(indexOf(node), memoryNodeOf(mainAddress));
+                    otherBlock.state = CacheState.SHARED;
+                    otherBlock.isDirty = false;
+                    System.out.println("CPU " + node.id + " 的Cache块写回主存");
                 }
+                block.state = CacheState.SHARED; // 本地变为共享
+                block.isDirty = false;
+                return downgraded;
             }
         }
         
         // 从主存获取整个块数据（16字节）
-        String[] mainData = mainMemory.computeIfAbsent(address, k -> {
-            String[] zeros = new String[BLOCK_SIZE];
-            Arrays.fill(zeros, "0");
-            return zeros;
-        });
+        String[] mainData = mainMemory.read(address);
+        energy.dramRead(memoryEnergyIndex(address));
+        energy.message(memoryEnergyIndex(address), 1, DATA_MESSAGE_BYTES);
         
         block.data = mainData.clone();
-        block.state = CacheState.SHARED;
+        // 写更新协议中没有其他副本时进入E，之后的写无需广播
+        block.state = coherenceProtocol.equals("MSI") ? CacheState.SHARED : CacheState.EXCLUSIVE;
         block.isDirty = false;
+        return false;
     }
     
     // 作废其他CPU的相同地址缓存块
     private void invalidateOtherCPUs(String address, CPUNode excludeNode) {
         String tag = address.substring(2, 6); 
+        int cacheIndex = Integer.parseInt(address.substring(6, 7), 16);
+        int targets = 0;
         for (CPUNode node : cpuNodes) {
             if (node == excludeNode) continue; // 跳过目标节点
-            for (CacheBlock block : node.cacheBlocks) {
-                if (block.tag.equals(tag)) {          // 标签相同表示缓存了同一主存块
-                    block.state = CacheState.INVALID; // 作废
+            CacheBlock block = node.cacheBlocks[cacheIndex];
+            if (block.tag.equals(tag)) {          // 同一位置标签相同表示缓存了同一主存块
+                countUnusedPrefetchInvalidation(node, block);
+                if (block.state != CacheState.INVALID) {
+                    missClassifier.invalidate(node.id, address);
+                    energy.cacheAccess(indexOf(node));
+                    targets++;
+                }
+                block.state = CacheState.INVALID; // 作废
+            }
+            CacheBlock victim = node.victimCache.remove(address.substring(2, 7)); // 牺牲缓存中的副本一并作废
+            if (victim != null) {
+                countUnusedPrefetchInvalidation(node, victim);
+                if (victim.state != CacheState.INVALID) {
+                    missClassifier.invalidate(node.id, address);
+                    energy.cacheAccess(indexOf(node));
+                    targets++;
                 }
             }
         }
+        SimEvents.invalidation("Snoop", excludeNode.id, address, targets);
+        heatmap.invalidation(address, targets);
+    }
+
+    // 未被使用的预取块收到作废：这次作废完全由预取引入
+    private void countUnusedPrefetchInvalidation(CPUNode node, CacheBlock block) {
+        if (block.prefetched && block.state != CacheState.INVALID) {
+            block.prefetched = false;
+            node.prefetchStats.unusedInvalidated++;
+        }
     }
     
     // 写回主存
-    private void writeBackToMainMemory(CacheBlock block) {
+    private void writeBackToMainMemory(CPUNode node, CacheBlock block) {
         if (block.tag.equals("-")) return; 	 // 无效标签不处理
         String address = "0x" + block.tag + block.index + block.offset;
-        mainMemory.put(address, block.data); // 更新主存
+        SimEvents.writeBack("Snoop", node.id, address, block.state.getAbbr());
+        heatmap.traffic(indexOf(node), memoryNodeOf(address));
+        mainMemory.write(address, block.data); // 更新主存
+        energy.broadcast(indexOf(node));
+        energy.message(indexOf(node), 1, DATA_MESSAGE_BYTES);
+        energy.dramWrite(memoryEnergyIndex(address));
+        busStats.writeBacks++;
+        busStats.wordsMoved += BLOCK_SIZE;
         block.isDirty = false; 				 // 清除标记
         System.out.println("写回主存：" + address + "，数据：" + String.join("", block.data));
     }
@@ -413,30 +1207,36 @@ public class Snoop extends JFrame {
      * 更新历史列表显示
      */
     private void updateHistoryList() {
+        SimEvents.RenderEvent event = SimEvents.render();
         historyModel.clear();
         requestHistory.forEach(r -> historyModel.addElement(
             String.format("[%s] %s %s %s",
-                (Boolean) r.get("cacheHit") ? "命中" : "缺失",
+                r.get("result"),
                 r.get("targetCpu"),
                 r.get("operation"),
                 r.get("address")
             )
         ));
+        SimEvents.rendered(event, "Snoop", "历史");
     }
 
     /*
      * 重新渲染CPU节点面板
      */
     private void renderCPUNodes() {
+        SimEvents.RenderEvent event = SimEvents.render();
         cpuNodesPanel.removeAll();
         for (CPUNode node : cpuNodes) {
             JPanel cpuPanel = new JPanel(new BorderLayout());
-            cpuPanel.setBorder(new TitledBorder(node.id));
+            cpuPanel.setBorder(new TitledBorder(nodeTitle(node)));
             cpuPanel.add(new JScrollPane(new JTable(createCacheTableModel(node))), BorderLayout.CENTER);
+            cpuPanel.add(createBufferPanel(node), BorderLayout.SOUTH);
             cpuNodesPanel.add(cpuPanel);
         }
+        busStatsLabel.setText(statsText());
         cpuNodesPanel.revalidate();
         cpuNodesPanel.repaint();
+        SimEvents.rendered(event, "Snoop", "CPU节点");
     }
 
     /*
@@ -457,29 +1257,108 @@ public class Snoop extends JFrame {
             request.get("address"),
             request.get("operation"),
             request.get("targetCpu"),
-            (Boolean)request.get("cacheHit") ? "命中" : "缺失",
+            request.get("result"),
             request.get("details").toString().replace("[", "").replace("]", "")
         ));
     }
 
+    // 总线、原子操作、MSHR与主存存储统计
+    private String statsText() {
+        MissStatusRegisters[] mshrs = Arrays.stream(cpuNodes).map(n -> n.mshr).toArray(MissStatusRegisters[]::new);
+        return "<html>" + busStats.summary() + "<br>" + atomics.summary() + "<br>" + MissStatusRegisters.summary(mshrs)
+            + "<br>" + BlockStore.summary(mainMemory) + "<br>" + energy.summary() + "</html>";
+    }
+
+    /*
+     * 显示缺失分类统计(按节点、Cache组、地址区间)
+     */
+    private void showMissReport() {
+        JTextArea reportArea = new JTextArea(missClassifier.report(), 30, 90);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "缺失分类", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /*
+     * 显示各节点的能耗明细与每次访存的能耗
+     */
+    private void showEnergyReport() {
+        JTextArea reportArea = new JTextArea(energy.report(), 16, 110);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "能耗", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /*
+     * 显示锁行争用统计(原子操作、CAS/SC失败、所有权迁移)
+     */
+    private void showAtomicReport() {
+        JTextArea reportArea = new JTextArea(atomics.report(), 20, 100);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "锁行争用", JOptionPane.PLAIN_MESSAGE);
+    }
+
     /*
      * 重置系统状态
      */
     private void resetSystem() {
+        if (replayTimer != null) replayTimer.stop();
+        drainAllStoreBuffers();
     	// 写回所有CPU的脏块
         for (CPUNode node : cpuNodes) {
             for (CacheBlock block : node.cacheBlocks) {
-                if (block.state == CacheState.MODIFIED && block.isDirty) {
-                    writeBackToMainMemory(block);
+                if (block.state != CacheState.INVALID && block.isDirty) {
+                    writeBackToMainMemory(node, block);
+                }
+            }
+            for (CacheBlock block : node.victimCache.entries.values()) {
+                if (block.state != CacheState.INVALID && block.isDirty) {
+                    writeBackToMainMemory(node, block);
                 }
             }
         }
         initSystem();
+        busStats = new BusStats();
+        missClassifier = new MissClassifier(CACHE_BLOCKS + VICTIM_ENTRIES);
+        atomics = new Atomics();
+        heatmap.reset();
+        energy = createEnergyModel();
         historyModel.clear();
         detailArea.setText("");
         renderCPUNodes();
     }
 
+    /*
+     * 切换所有节点的预取器
+     */
+    private void changePrefetcher(String type) {
+        prefetcherType = type;
+        for (CPUNode node : cpuNodes) {
+            node.prefetcher = Prefetcher.create(type);
+            node.prefetchStats = new Prefetcher.Stats();
+        }
+        renderCPUNodes();
+    }
+
+    /*
+     * 切换内存模型
+     */
+    private void changeMemoryModel(String model) {
+        memoryModel = model;
+        if (model.equals("SC")) drainAllStoreBuffers();
+        renderCPUNodes();
+    }
+
+    // 提交所有节点写缓冲中的全部写(内存屏障)
+    private void drainAllStoreBuffers() {
+        for (CPUNode node : cpuNodes) {
+            while (!node.storeBuffer.entries.isEmpty()) {
+                commitStore(node, node.storeBuffer.poll());
+            }
+        }
+    }
+
     /*
      * 根据ID获取目标CPU节点
      */
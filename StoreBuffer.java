@@ -0,0 +1,99 @@
+package Demo1;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/*
+ * 合并写缓冲(TSO内存模型)
+ * 写请求进入写缓冲后立即退休，由仿真器在后台逐项获取所有权并提交到Cache；
+ * 本节点后续的读优先从写缓冲转发最新值。为保持TSO的写-写顺序，
+ * 只有与最年轻一项属于同一块的写才合并
+ */
+class StoreBuffer {
+    // 写缓冲项
+    static class Entry {
+        String address;     // 写地址
+        String value;       // 写入值(16字节)
+        long enqueuedAt;    // 进入写缓冲时的仿真周期
+        int coalesced;      // 合并进本项的写次数
+
+        Entry(String address, String value, long enqueuedAt) {
+            this.address = address;
+            this.value = value;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        String blockAddress() { return address.substring(2, 7); }
+    }
+
+    final int capacity;
+    final ArrayDeque<Entry> entries = new ArrayDeque<>(); // 按程序顺序排列，队首最老
+
+    // 统计
+    int stores;             // 进入写缓冲的写次数
+    int coalescedStores;    // 被合并的写次数
+    int forwardedLoads;     // 由写缓冲转发的读次数
+    int fullStalls;         // 写缓冲满而停顿的次数
+    int drained;            // 已提交的项数
+    long totalDrainLatency; // 提交项从入队到提交的周期数之和
+    long maxDrainLatency;   // 最大排空延迟
+
+    StoreBuffer(int capacity) { this.capacity = capacity; }
+
+    boolean isFull() { return entries.size() >= capacity; }
+
+    /*
+     * 写入写缓冲，与最年轻项同块时合并
+     * 返回false表示写缓冲已满，调用方需先排空一项
+     */
+    boolean offer(String address, String value, long cycle) {
+        Entry youngest = entries.peekLast();
+        if (youngest != null && youngest.blockAddress().equals(address.substring(2, 7))) {
+            youngest.address = address;
+            youngest.value = value;
+            youngest.coalesced++;
+            stores++;
+            coalescedStores++;
+            return true;
+        }
+        if (isFull()) return false;
+        entries.addLast(new Entry(address, value, cycle));
+        stores++;
+        return true;
+    }
+
+    // 读转发：返回本节点对该块最年轻的写入值，没有则返回null
+    String forward(String address) {
+        String blockAddress = address.substring(2, 7);
+        Iterator<Entry> it = entries.descendingIterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.blockAddress().equals(blockAddress)) {
+                forwardedLoads++;
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    // 取出最老一项用于提交
+    Entry poll() {
+        return entries.pollFirst();
+    }
+
+    // 记录一项已提交
+    void retired(Entry entry, long cycle) {
+        long latency = cycle - entry.enqueuedAt;
+        drained++;
+        totalDrainLatency += latency;
+        maxDrainLatency = Math.max(maxDrainLatency, latency);
+    }
+
+    double averageDrainLatency() { return drained == 0 ? 0 : (double) totalDrainLatency / drained; }
+
+    String summary() {
+        return String.format("写缓冲 %d/%d (合并:%d 转发:%d 满停顿:%d 平均排空:%.1f 最大:%d)",
+            entries.size(), capacity, coalescedStores, forwardedLoads, fullStalls,
+            averageDrainLatency(), maxDrainLatency);
+    }
+}
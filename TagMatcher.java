@@ -0,0 +1,79 @@
+package Demo1;
+
+import java.util.Random;
+
+/*
+ * 标签匹配：在连续的int标签数组中查找第一个等于tag的位置，供TraceEngine的组内查找与跨节点监听使用
+ * 编译了simd/VectorTagMatcher.java且运行时加 --add-modules jdk.incubator.vector 时用SIMD逐向量比较，否则退回逐个比较。
+ * -Dtrace.simd=auto|on|off 选择实现，on时Vector API不可用直接报错
+ *
+ * 基准测试: java --add-modules jdk.incubator.vector Demo1.TagMatcher
+ */
+interface TagMatcher {
+    /*
+     * 在tags[from, to)中查找第一个等于tag的下标，没有返回-1
+     */
+    int find(int[] tags, int from, int to, int tag);
+
+    TagMatcher SCALAR = (tags, from, to, tag) -> {
+        for (int i = from; i < to; i++) {
+            if (tags[i] == tag) return i;
+        }
+        return -1;
+    };
+
+    static TagMatcher create() {
+        String mode = System.getProperty("trace.simd", "auto");
+        if (mode.equals("off")) return SCALAR;
+        try {
+            return (TagMatcher) Class.forName("Demo1.VectorTagMatcher").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // 未编译simd目录或未加入jdk.incubator.vector模块时加载失败
+            if (mode.equals("on")) throw new IllegalStateException("Vector API不可用，需 --add-modules jdk.incubator.vector", e);
+            return SCALAR;
+        }
+    }
+
+    /*
+     * 比较标量与SIMD实现：每个长度对应一种"节点数×相联度"的监听探测宽度，目标位置均匀分布，含1/4未命中
+     */
+    static void main(String[] args) {
+        TagMatcher vector = create();
+        if (vector == SCALAR) System.out.println("Vector API不可用，仅测试标量实现");
+        int[] lengths = {4, 8, 16, 32, 64, 128, 256};
+        int rounds = Integer.getInteger("bench.rounds", 5);
+        System.out.printf("%8s%14s%14s%10s%n", "宽度", "标量ns/次", "SIMD ns/次", "加速比");
+        for (int length : lengths) {
+            int sets = Math.max(1, (1 << 20) / length);
+            int[] tags = new int[sets * length];
+            int[] probes = new int[1 << 16];
+            int[] bases = new int[probes.length];
+            Random random = new Random(length);
+            for (int i = 0; i < tags.length; i++) tags[i] = random.nextInt();
+            for (int i = 0; i < probes.length; i++) {
+                bases[i] = random.nextInt(sets) * length;
+                probes[i] = random.nextInt(4) == 0 ? random.nextInt() : tags[bases[i] + random.nextInt(length)];
+            }
+            double scalarTime = Double.MAX_VALUE, vectorTime = Double.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                scalarTime = Math.min(scalarTime, time(SCALAR, tags, probes, bases, length));
+                vectorTime = Math.min(vectorTime, time(vector, tags, probes, bases, length));
+            }
+            System.out.printf("%8d%14.2f%14.2f%9.2fx%n", length, scalarTime, vectorTime, scalarTime / vectorTime);
+        }
+    }
+
+    // 每次查找的平均纳秒数
+    private static double time(TagMatcher matcher, int[] tags, int[] probes, int[] bases, int length) {
+        int lookups = 1 << 22;
+        long found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int j = i & (probes.length - 1);
+            found += matcher.find(tags, bases[j], bases[j] + length, probes[j]);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found == Long.MIN_VALUE) System.out.println(); // 防止结果被优化掉
+        return (double) elapsed / lookups;
+    }
+}
@@ -0,0 +1,321 @@
+package Demo1;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/*
+ * 按仿真周期交错执行请求的监听总线仿真(无界面)
+ * 每个CPU按程序顺序发出自己在踪迹中的请求，一次最多一个未完成的缺失；命中HIT_LATENCY周期后发出下一条。
+ * 缺失进入总线仲裁队列，总线为分离事务：地址阶段按授予顺序串行，授予时即为一致性排序点(在TraceEngine上完成状态转换)，
+ * 数据在存储器或缓存间延迟之后返回，期间其他CPU的事务可以继续获得总线，因此多个事务同时在途。
+ * 授予时若同一块已有未完成的事务(竞争)，请求被NACK并在RETRY_DELAY周期后重新仲裁。
+ * 事件由TimingWheel调度，事件对象池化，运行中不分配对象。
+ * 总线授予顺序不同于踪迹的全局顺序，所以缺失数可能与TraceRunner的顺序仿真略有不同
+ *
+ * 抽样模式(-Dtimed.sample.period=N，SMARTS式)：踪迹按每N条请求分段，每段前面的请求只做功能预热
+ * (按踪迹顺序交给TraceEngine，保持Cache与一致性状态正确，不调度事件)，段末的WARMUP+2*UNIT条请求做详细仿真：
+ * 先完成的WARMUP条预热总线队列等时序状态，随后完成的UNIT条为测量区间；最后UNIT条不测量，
+ * 只让各CPU在测量区间内都有请求可发，避免段末只剩少数CPU时的排空偏差。各段的测量值作为样本，给出均值与95%置信区间。
+ *
+ * 用法: java -Dtimed.nodes=4 -Dtimed.bus=4 -Dtimed.memory=100 -Dtimed.c2c=30 Demo1.TimedSimulator trace.txt
+ */
+public class TimedSimulator {
+    static final int NODES = Integer.getInteger("timed.nodes", 4);
+    static final int SETS = Integer.getInteger("timed.sets", 16);
+    static final int WAYS = Integer.getInteger("timed.ways", 1);
+    static final int BLOCK_BYTES = Integer.getInteger("timed.block", 16);
+    static final String PROTOCOL = System.getProperty("timed.protocol", "MSI");
+    static final int HIT_LATENCY = Integer.getInteger("timed.hit", 1);
+    static final int BUS_CYCLES = Integer.getInteger("timed.bus", 4);          // 一次地址阶段(或一次写回)占用总线的周期
+    static final int MEMORY_LATENCY = Integer.getInteger("timed.memory", 100);
+    static final int C2C_LATENCY = Integer.getInteger("timed.c2c", 30);        // 由其他Cache的M副本提供数据
+    static final int RETRY_DELAY = Integer.getInteger("timed.retry", 8);
+    // 抽样：每段请求数(0为全部详细仿真)、每段详细预热与测量的请求数
+    static final int SAMPLE_PERIOD = Integer.getInteger("timed.sample.period", 0);
+    static final int SAMPLE_WARMUP = Integer.getInteger("timed.sample.warmup", 2000);
+    static final int SAMPLE_UNIT = Integer.getInteger("timed.sample.unit", 1000);
+    static final double Z_95 = 1.96;
+
+    // 事件类型
+    static final int ISSUE = 0;     // CPU发出下一条请求
+    static final int BUS = 1;       // 总线仲裁授予队首请求
+    static final int DATA = 2;      // 数据返回，事务完成
+    static final int RETRY = 3;     // NACK后重新请求总线
+
+    final TraceEngine engine;
+    final TimingWheel wheel = new TimingWheel();
+    private final long[][] refs;        // [CPU] 按程序顺序的请求
+    private final int[] counts;         // 每个CPU的请求数
+    private final int[] cursor;         // 每个CPU下一条请求的位置
+    private final long[] pendingBlock;  // 每个CPU未完成事务的块号，-1为无
+    private final long[] requestedAt;   // 当前缺失开始请求总线的周期
+    private final long[] finishedAt;    // 每个CPU完成全部请求的周期
+    private final int[] busQueue;       // 总线仲裁队列(环形)，每个CPU最多排一次
+    private int queueHead, queueSize;
+    private boolean busActive;          // 已调度了下一次仲裁
+    private long busFreeAt;
+    private int inFlight;
+
+    long hits, misses, nacks, maxInFlight;
+    long missLatency, queueDelay, busBusyCycles;
+    // 测量区间：完成的访存数达到markAt时记下各计数，达到endAt时记下结束周期，-1为不测量
+    private long completed, markAt = -1, endAt = -1;
+    private long markCycle, markMisses, markMissLatency, markBusBusyCycles;
+    private long endCycle, endMisses, endMissLatency, endBusBusyCycles;
+
+    TimedSimulator(int nodes) {
+        engine = new TraceEngine(nodes, SETS, WAYS, BLOCK_BYTES, PROTOCOL);
+        refs = new long[nodes][1024];
+        counts = new int[nodes];
+        cursor = new int[nodes];
+        pendingBlock = new long[nodes];
+        requestedAt = new long[nodes];
+        finishedAt = new long[nodes];
+        busQueue = new int[nodes];
+        Arrays.fill(pendingBlock, -1);
+    }
+
+    // 把踪迹中的一条请求加入对应CPU的程序序列
+    void add(long ref) {
+        int cpu = TraceEngine.cpuOf(ref);
+        if (cpu >= refs.length) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+        if (counts[cpu] == refs[cpu].length) refs[cpu] = Arrays.copyOf(refs[cpu], refs[cpu].length * 2);
+        refs[cpu][counts[cpu]++] = ref;
+    }
+
+    private final TimingWheel.Handler handler = (type, cpu, payload) -> {
+        switch (type) {
+            case ISSUE: issue(cpu); break;
+            case BUS: grant(); break;
+            case DATA: complete(cpu); break;
+            case RETRY: requestBus(cpu); break;
+            default: throw new IllegalStateException("未知事件类型: " + type);
+        }
+    };
+
+    // 运行到已加入的请求全部完成，返回结束周期
+    long run() {
+        for (int cpu = 0; cpu < refs.length; cpu++) wheel.schedule(wheel.now(), ISSUE, cpu, 0);
+        return wheel.run(handler, Long.MAX_VALUE);
+    }
+
+    // 清空已完成的请求序列，准备下一段详细仿真(Cache状态与周期保留)
+    private void clearWindow() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(cursor, 0);
+    }
+
+    // 一次访存完成(命中或获得总线授予)
+    private void completed() {
+        completed++;
+        if (completed == markAt) mark();
+        if (completed == endAt) {
+            endCycle = wheel.now();
+            endMisses = misses;
+            endMissLatency = missLatency;
+            endBusBusyCycles = busBusyCycles;
+        }
+    }
+
+    private void mark() {
+        markCycle = wheel.now();
+        markMisses = misses;
+        markMissLatency = missLatency;
+        markBusBusyCycles = busBusyCycles;
+    }
+
+    private void issue(int cpu) {
+        if (cursor[cpu] == counts[cpu]) {
+            finishedAt[cpu] = wheel.now();
+            return;
+        }
+        long ref = refs[cpu][cursor[cpu]];
+        if (engine.hits(cpu, TraceEngine.isWrite(ref), TraceEngine.addressOf(ref))) {
+            engine.access(cpu, TraceEngine.isWrite(ref), TraceEngine.addressOf(ref));
+            cursor[cpu]++;
+            hits++;
+            completed();
+            wheel.scheduleAfter(HIT_LATENCY, ISSUE, cpu, 0);
+            return;
+        }
+        misses++;
+        requestedAt[cpu] = wheel.now();
+        requestBus(cpu);
+    }
+
+    private void requestBus(int cpu) {
+        busQueue[(queueHead + queueSize++) % busQueue.length] = cpu;
+        if (!busActive) {
+            busActive = true;
+            wheel.schedule(Math.max(wheel.now(), busFreeAt), BUS, -1, 0);
+        }
+    }
+
+    /*
+     * 授予队首请求：排序点上完成一致性状态转换，按数据来源安排数据返回
+     */
+    private void grant() {
+        int cpu = busQueue[queueHead];
+        queueHead = (queueHead + 1) % busQueue.length;
+        queueSize--;
+        long ref = refs[cpu][cursor[cpu]];
+        long block = engine.blockOf(TraceEngine.addressOf(ref));
+        int occupancy = BUS_CYCLES;
+
+        boolean conflict = false;
+        for (int other = 0; other < pendingBlock.length; other++) {
+            if (other != cpu && pendingBlock[other] == block) conflict = true;
+        }
+        if (conflict) {
+            nacks++;
+            wheel.scheduleAfter(occupancy + RETRY_DELAY, RETRY, cpu, 0);
+        } else {
+            TraceEngine.Stats stats = engine.stats;
+            long cacheToCache = stats.cacheToCache, upgrades = stats.busUpgrades, writeBacks = stats.writeBacks;
+            engine.access(cpu, TraceEngine.isWrite(ref), TraceEngine.addressOf(ref));
+            cursor[cpu]++;
+            completed();
+            int latency = stats.busUpgrades > upgrades ? 0 : stats.cacheToCache > cacheToCache ? C2C_LATENCY : MEMORY_LATENCY;
+            occupancy += (int) (stats.writeBacks - writeBacks) * BUS_CYCLES; // 写回同样占用总线
+            queueDelay += wheel.now() - requestedAt[cpu];
+            pendingBlock[cpu] = block;
+            maxInFlight = Math.max(maxInFlight, ++inFlight);
+            wheel.scheduleAfter(occupancy + latency, DATA, cpu, 0);
+        }
+        busBusyCycles += occupancy;
+        busFreeAt = wheel.now() + occupancy;
+        if (queueSize > 0) wheel.schedule(busFreeAt, BUS, -1, 0); else busActive = false;
+    }
+
+    private void complete(int cpu) {
+        pendingBlock[cpu] = -1;
+        inFlight--;
+        missLatency += wheel.now() - requestedAt[cpu];
+        wheel.scheduleAfter(HIT_LATENCY, ISSUE, cpu, 0);
+    }
+
+    String summary(long cycles) {
+        long accesses = hits + misses;
+        return String.format("周期:%d 访存:%d (%.3f/周期) 缺失:%d 平均缺失延迟:%.1f 平均排队:%.1f 总线利用率:%.1f%% NACK:%d 最多在途:%d%n%s",
+            cycles, accesses, cycles == 0 ? 0 : (double) accesses / cycles, misses,
+            misses == 0 ? 0 : (double) missLatency / misses, misses == 0 ? 0 : (double) queueDelay / misses,
+            cycles == 0 ? 0 : busBusyCycles * 100.0 / cycles, nacks, maxInFlight, engine.stats.summary());
+    }
+
+    /*
+     * 样本均值与置信区间
+     */
+    static class Estimate {
+        long samples;
+        double sum;
+        double sumSquares;
+
+        void add(double value) {
+            samples++;
+            sum += value;
+            sumSquares += value * value;
+        }
+
+        double mean() { return samples == 0 ? 0 : sum / samples; }
+
+        double standardDeviation() {
+            if (samples < 2) return 0;
+            double mean = mean();
+            return Math.sqrt(Math.max(0, (sumSquares - samples * mean * mean) / (samples - 1)));
+        }
+
+        // 95%置信区间的半宽
+        double halfWidth() { return samples == 0 ? 0 : Z_95 * standardDeviation() / Math.sqrt(samples); }
+
+        // 使置信区间半宽不超过均值的relativeError所需的样本数
+        long samplesFor(double relativeError) {
+            double mean = mean();
+            if (mean == 0) return samples;
+            double variation = standardDeviation() / mean;
+            return (long) Math.ceil(Math.pow(Z_95 * variation / relativeError, 2));
+        }
+
+        String format(String name) {
+            double mean = mean();
+            return String.format("%s: %.4f ± %.4f (±%.1f%%)", name, mean, halfWidth(), mean == 0 ? 0 : halfWidth() * 100 / mean);
+        }
+    }
+
+    /*
+     * 抽样仿真：逐条读取踪迹，功能预热与详细仿真交替进行，不保存整个踪迹
+     */
+    static void sample(Path trace) throws IOException {
+        int detailed = SAMPLE_WARMUP + 2 * SAMPLE_UNIT;
+        if (SAMPLE_PERIOD < detailed) throw new IllegalArgumentException("抽样周期不能小于详细预热与测量请求数之和: " + detailed);
+        TimedSimulator sim = new TimedSimulator(NODES);
+        Estimate cyclesPerAccess = new Estimate();
+        Estimate missRate = new Estimate();
+        Estimate missLatency = new Estimate();
+        Estimate busUtilization = new Estimate();
+        long[] position = new long[1];
+        long start = System.nanoTime();
+
+        TraceRunner.readTrace(trace, ref -> {
+            long offset = position[0]++ % SAMPLE_PERIOD;
+            if (offset < SAMPLE_PERIOD - detailed) {
+                sim.engine.access(ref); // 功能预热
+                return;
+            }
+            if (offset == SAMPLE_PERIOD - detailed) {
+                sim.markAt = sim.completed + SAMPLE_WARMUP;
+                sim.endAt = sim.markAt + SAMPLE_UNIT;
+                if (SAMPLE_WARMUP == 0) sim.mark();
+            }
+            sim.add(ref);
+            if (offset < SAMPLE_PERIOD - 1) return;
+
+            sim.run();
+            long cycles = sim.endCycle - sim.markCycle;
+            long misses = sim.endMisses - sim.markMisses;
+            cyclesPerAccess.add((double) cycles / SAMPLE_UNIT);
+            missRate.add((double) misses / SAMPLE_UNIT);
+            if (misses > 0) missLatency.add((double) (sim.endMissLatency - sim.markMissLatency) / misses);
+            busUtilization.add(cycles == 0 ? 0 : (double) (sim.endBusBusyCycles - sim.markBusBusyCycles) / cycles);
+            sim.clearWindow();
+        });
+        sim.run(); // 末尾不足一段的请求只用于预热
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("抽样: 每%d条请求详细仿真%d条(预热%d 测量%d)，样本数:%d%n",
+            SAMPLE_PERIOD, detailed, SAMPLE_WARMUP, SAMPLE_UNIT, cyclesPerAccess.samples);
+        System.out.println(cyclesPerAccess.format("每访存周期") + "  达到±3%需样本:" + cyclesPerAccess.samplesFor(0.03));
+        System.out.println(missRate.format("缺失率"));
+        System.out.println(missLatency.format("平均缺失延迟"));
+        System.out.println(busUtilization.format("总线利用率"));
+        System.out.println("全踪迹功能统计 " + sim.engine.stats.summary());
+        System.out.printf("请求:%d 详细仿真事件:%d 耗时 %.2fs (%.1f M请求/秒)%n", position[0], sim.wheel.processed,
+            seconds, position[0] / seconds / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java [-Dtimed.nodes=4 -Dtimed.sets=16 -Dtimed.ways=1 -Dtimed.block=16 -Dtimed.protocol=MSI "
+                + "-Dtimed.hit=1 -Dtimed.bus=4 -Dtimed.memory=100 -Dtimed.c2c=30 -Dtimed.retry=8 "
+                + "-Dtimed.sample.period=0 -Dtimed.sample.warmup=2000 -Dtimed.sample.unit=1000] Demo1.TimedSimulator 踪迹文件");
+            System.exit(1);
+        }
+        if (SAMPLE_PERIOD > 0) {
+            sample(Paths.get(args[0]));
+            return;
+        }
+        TimedSimulator sim = new TimedSimulator(NODES);
+        TraceRunner.readTrace(Paths.get(args[0]), sim::add);
+
+        long start = System.nanoTime();
+        long cycles = sim.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(sim.summary(cycles));
+        for (int cpu = 0; cpu < NODES; cpu++) {
+            System.out.printf("CPU%d 请求:%d 完成于周期:%d%n", cpu, sim.counts[cpu], sim.finishedAt[cpu]);
+        }
+        System.out.printf("事件:%d 事件池:%d 耗时 %.2fs (%.1f M事件/秒)%n", sim.wheel.processed, sim.wheel.allocated,
+            seconds, sim.wheel.processed / seconds / 1e6);
+    }
+}
@@ -0,0 +1,119 @@
+package Demo1;
+
+/*
+ * 分层时间轮离散事件调度器
+ * 8层×256槽覆盖全部64位周期：事件按触发时刻与当前时刻最高的不同字节放入对应层，
+ * 当前时刻走到该层的槽时再下放到低层，第0层的槽即为要处理的周期。同一周期内的事件先进先出，
+ * 处理当前周期时新调度到当前周期的事件在本周期内处理。
+ * 事件对象取自空闲链表，处理后立即归还，运行中不再分配；事件内容只有类型、目标和一个long载荷
+ */
+class TimingWheel {
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 64 / BITS;
+
+    // 事件处理器：按类型分派，目标通常为节点号
+    interface Handler {
+        void handle(int type, int target, long payload);
+    }
+
+    private static final class Event {
+        long time;
+        int type;
+        int target;
+        long payload;
+        Event next;
+    }
+
+    private final Event[][] heads = new Event[LEVELS][SLOTS];
+    private final Event[][] tails = new Event[LEVELS][SLOTS];
+    private final int[] levelCounts = new int[LEVELS];
+    private Event free;             // 空闲事件链表
+    private long now;
+    private int size;               // 待处理事件数
+    long processed;                 // 已处理事件数
+    int allocated;                  // 创建过的事件对象数(即池的大小)
+
+    long now() { return now; }
+
+    int size() { return size; }
+
+    /*
+     * 在绝对周期time调度一个事件，time不得早于当前周期
+     */
+    void schedule(long time, int type, int target, long payload) {
+        if (time < now) throw new IllegalArgumentException("不能调度到过去: " + time + " < " + now);
+        Event e = free;
+        if (e != null) {
+            free = e.next;
+        } else {
+            e = new Event();
+            allocated++;
+        }
+        e.time = time;
+        e.type = type;
+        e.target = target;
+        e.payload = payload;
+        insert(e);
+        size++;
+    }
+
+    void scheduleAfter(long delay, int type, int target, long payload) {
+        schedule(now + delay, type, target, payload);
+    }
+
+    private void insert(Event e) {
+        long diff = e.time ^ now;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        int slot = (int) (e.time >>> (BITS * level)) & MASK;
+        e.next = null;
+        if (heads[level][slot] == null) heads[level][slot] = e; else tails[level][slot].next = e;
+        tails[level][slot] = e;
+        levelCounts[level]++;
+    }
+
+    /*
+     * 处理事件直到没有待处理事件或超过limit周期，返回最后的周期
+     */
+    long run(Handler handler, long limit) {
+        while (size > 0 && now <= limit) {
+            int slot = (int) now & MASK;
+            Event e;
+            while ((e = heads[0][slot]) != null) {
+                heads[0][slot] = e.next;
+                levelCounts[0]--;
+                size--;
+                int type = e.type, target = e.target;
+                long payload = e.payload;
+                e.next = free;
+                free = e;
+                processed++;
+                handler.handle(type, target, payload);
+            }
+            if (size == 0) break;
+            // 跳到最低非空层的下一个边界，期间的周期没有事件
+            int level = 0;
+            while (levelCounts[level] == 0) level++;
+            now = level == 0 ? now + 1 : (now | ((1L << (BITS * level)) - 1)) + 1;
+            if ((now & MASK) == 0) cascade(1);
+        }
+        return now;
+    }
+
+    // 当前时刻进入第level层的新槽：先处理更高层，再把该槽的事件按原顺序下放
+    private void cascade(int level) {
+        if (level >= LEVELS) return;
+        int slot = (int) (now >>> (BITS * level)) & MASK;
+        if (slot == 0) cascade(level + 1);
+        Event e = heads[level][slot];
+        heads[level][slot] = null;
+        tails[level][slot] = null;
+        while (e != null) {
+            Event next = e.next;
+            levelCounts[level]--;
+            insert(e);
+            e = next;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package Demo1;
+
+import java.util.Arrays;
+
+/*
+ * 无界面的监听协议(MSI/MESI写作废+写回)仿真核心，用于大规模访存踪迹
+ * 与Snoop界面不同，几何参数(节点数、组数、相联度、块大小)和协议可配置，地址用int表示，只统计不保存数据。
+ * Cache组之间互不影响，且一致性状态按块维护，因此同一组的访存只需保持相对顺序，
+ * 不同组可以分到不同分片独立运行，合并统计后与顺序运行结果一致。
+ * 标签、状态与LRU时间戳按[组][节点][路]平铺在连续数组中(结构数组)：一个节点的组内查找与
+ * 全部节点的监听探测都是对一段连续标签的比较，由TagMatcher完成(可用时为SIMD)
+ */
+class TraceEngine {
+    static final byte INVALID = 0;
+    static final byte SHARED = 1;
+    static final byte MODIFIED = 2;
+    static final byte EXCLUSIVE = 3;    // 仅MESI：唯一干净副本，写命中无需总线事务
+    static final String[] PROTOCOLS = {"MSI", "MESI"};
+
+    final int nodes;        // 处理节点数
+    final int sets;         // 每个节点的Cache组数
+    final int ways;         // 相联度(1为直接映射)
+    final int blockBytes;   // 块大小(字节)
+    final boolean mesi;     // true为MESI，false为MSI
+    private final int blockShift;
+
+    private static final TagMatcher MATCHER = TagMatcher.create();
+
+    private final int setStride;    // 每组的槽位数(节点数×相联度)
+    private final int[] tags;       // [组][节点][路] 块号(地址为32位，块号不超过32位)，-1为空
+    private final byte[] states;    // [组][节点][路] 一致性状态
+    private final long[] lastUse;   // [组][节点][路] LRU时间戳
+    private long tick;
+
+    final Stats stats = new Stats();
+
+    TraceEngine(int nodes, int sets, int ways, int blockBytes) {
+        this(nodes, sets, ways, blockBytes, "MSI");
+    }
+
+    TraceEngine(int nodes, int sets, int ways, int blockBytes, String protocol) {
+        if (Integer.bitCount(blockBytes) != 1) throw new IllegalArgumentException("块大小必须为2的幂: " + blockBytes);
+        if (nodes < 1 || sets < 1 || ways < 1) throw new IllegalArgumentException("节点数、组数和相联度必须为正");
+        this.nodes = nodes;
+        this.sets = sets;
+        this.ways = ways;
+        this.blockBytes = blockBytes;
+        this.blockShift = Integer.numberOfTrailingZeros(blockBytes);
+        switch (protocol.toUpperCase()) {
+            case "MSI": mesi = false; break;
+            case "MESI": mesi = true; break;
+            default: throw new IllegalArgumentException("未知协议: " + protocol);
+        }
+        setStride = nodes * ways;
+        tags = new int[sets * setStride];
+        states = new byte[sets * setStride];
+        lastUse = new long[sets * setStride];
+        Arrays.fill(tags, -1);
+    }
+
+    // 地址所在的块号
+    long blockOf(int address) { return (address & 0xFFFFFFFFL) >>> blockShift; }
+
+    // 地址映射到的Cache组
+    int setOf(int address) { return (int) (blockOf(address) % sets); }
+
+    /*
+     * 访存踪迹中的一条请求打包为long：低32位地址，32-46位节点号，第47位为写标志
+     */
+    static long pack(int cpu, boolean write, int address) {
+        return (address & 0xFFFFFFFFL) | ((long) cpu << 32) | (write ? 1L << 47 : 0);
+    }
+
+    static int addressOf(long ref) { return (int) ref; }
+
+    static int cpuOf(long ref) { return (int) (ref >>> 32) & 0x7FFF; }
+
+    static boolean isWrite(long ref) { return (ref & 1L << 47) != 0; }
+
+    void access(long ref) {
+        access(cpuOf(ref), isWrite(ref), addressOf(ref));
+    }
+
+    /*
+     * 处理一次访存请求
+     */
+    void access(int cpu, boolean write, int address) {
+        if (cpu < 0 || cpu >= nodes) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+        tick++;
+        long block = blockOf(address);
+        int set = (int) (block % sets);
+        int slot = lookup(cpu, set, block);
+        stats.accesses++;
+        if (write) stats.writes++;
+
+        if (slot >= 0 && (!write || states[slot] == MODIFIED || states[slot] == EXCLUSIVE)) {
+            // 读命中，或写命中MODIFIED/EXCLUSIVE块(EXCLUSIVE静默升级)
+            if (write) {
+                stats.writeHits++;
+                states[slot] = MODIFIED;
+            } else {
+                stats.readHits++;
+            }
+            lastUse[slot] = tick;
+            return;
+        }
+
+        if (slot >= 0) {
+            // 写命中SHARED块：总线升级，作废其他副本
+            stats.writeHits++;
+            stats.busUpgrades++;
+            snoop(cpu, set, block, true);
+            states[slot] = MODIFIED;
+            lastUse[slot] = tick;
+            return;
+        }
+
+        // 缺失：BusRd / BusRdX，其他节点监听
+        if (write) stats.busReadExclusives++; else stats.busReads++;
+        boolean shared = snoop(cpu, set, block, write);
+        slot = victimSlot(cpu, set);
+        if (states[slot] == MODIFIED) stats.writeBacks++; // 替换出脏块写回
+        tags[slot] = (int) block;
+        states[slot] = write ? MODIFIED : mesi && !shared ? EXCLUSIVE : SHARED;
+        lastUse[slot] = tick;
+    }
+
+    /*
+     * 这次访存能否不经总线在本地完成(读命中，或写命中MODIFIED/EXCLUSIVE块)，不改变任何状态
+     */
+    boolean hits(int cpu, boolean write, int address) {
+        long block = blockOf(address);
+        int slot = lookup(cpu, (int) (block % sets), block);
+        return slot >= 0 && (!write || states[slot] == MODIFIED || states[slot] == EXCLUSIVE);
+    }
+
+    // 在节点的组内查找块，返回槽位或-1
+    private int lookup(int cpu, int set, long block) {
+        int base = set * setStride + cpu * ways;
+        return findValid(base, base + ways, (int) block);
+    }
+
+    // 在[from, to)中查找标签相等且有效的槽位，作废的旧副本标签仍可能相等，需跳过
+    private int findValid(int from, int to, int tag) {
+        for (int slot = MATCHER.find(tags, from, to, tag); slot >= 0; slot = MATCHER.find(tags, slot + 1, to, tag)) {
+            if (states[slot] != INVALID) return slot;
+        }
+        return -1;
+    }
+
+    /*
+     * 其他节点监听总线请求：MODIFIED副本提供数据并写回，
+     * 独占请求作废所有副本，读请求把MODIFIED/EXCLUSIVE降级为SHARED
+     * 返回其他节点是否持有副本
+     */
+    private boolean snoop(int requester, int set, long block, boolean exclusive) {
+        boolean shared = false;
+        // 同一组所有节点的槽位相邻，一次探测覆盖全部节点
+        int base = set * setStride, end = base + setStride, own = base + requester * ways;
+        for (int slot = findValid(base, end, (int) block); slot >= 0; slot = findValid(slot + 1, end, (int) block)) {
+            if (slot >= own && slot < own + ways) continue;
+            shared = true;
+            if (states[slot] == MODIFIED) {
+                stats.cacheToCache++;
+                stats.writeBacks++;
+            }
+            if (exclusive) {
+                states[slot] = INVALID;
+                stats.invalidations++;
+            } else {
+                states[slot] = SHARED;
+            }
+        }
+        return shared;
+    }
+
+    // 选择替换槽位：优先空槽，否则最久未使用
+    private int victimSlot(int cpu, int set) {
+        int base = set * setStride + cpu * ways;
+        int victim = base;
+        for (int slot = base; slot < base + ways; slot++) {
+            if (states[slot] == INVALID) return slot;
+            if (lastUse[slot] < lastUse[victim]) victim = slot;
+        }
+        return victim;
+    }
+
+    /*
+     * 仿真统计，各分片的统计可以直接相加合并
+     */
+    static class Stats {
+        long accesses;
+        long writes;
+        long readHits;
+        long writeHits;
+        long busReads;          // 读缺失BusRd
+        long busReadExclusives; // 写缺失BusRdX
+        long busUpgrades;       // 写命中SHARED的BusUpgr
+        long invalidations;     // 被作废的副本数
+        long cacheToCache;      // 由其他节点MODIFIED副本提供数据的次数
+        long writeBacks;        // 写回主存次数(替换与监听降级)
+
+        void merge(Stats other) {
+            accesses += other.accesses;
+            writes += other.writes;
+            readHits += other.readHits;
+            writeHits += other.writeHits;
+            busReads += other.busReads;
+            busReadExclusives += other.busReadExclusives;
+            busUpgrades += other.busUpgrades;
+            invalidations += other.invalidations;
+            cacheToCache += other.cacheToCache;
+            writeBacks += other.writeBacks;
+        }
+
+        // 复制另一份统计，用于一次访存前后的差分
+        void copyFrom(Stats other) {
+            accesses = other.accesses;
+            writes = other.writes;
+            readHits = other.readHits;
+            writeHits = other.writeHits;
+            busReads = other.busReads;
+            busReadExclusives = other.busReadExclusives;
+            busUpgrades = other.busUpgrades;
+            invalidations = other.invalidations;
+            cacheToCache = other.cacheToCache;
+            writeBacks = other.writeBacks;
+        }
+
+        // 累加after相对before的增量
+        void addDifference(Stats after, Stats before) {
+            accesses += after.accesses - before.accesses;
+            writes += after.writes - before.writes;
+            readHits += after.readHits - before.readHits;
+            writeHits += after.writeHits - before.writeHits;
+            busReads += after.busReads - before.busReads;
+            busReadExclusives += after.busReadExclusives - before.busReadExclusives;
+            busUpgrades += after.busUpgrades - before.busUpgrades;
+            invalidations += after.invalidations - before.invalidations;
+            cacheToCache += after.cacheToCache - before.cacheToCache;
+            writeBacks += after.writeBacks - before.writeBacks;
+        }
+
+        long misses() { return accesses - readHits - writeHits; }
+
+        double missRate() { return accesses == 0 ? 0 : (double) misses() / accesses; }
+
+        long busTransactions() { return busReads + busReadExclusives + busUpgrades; }
+
+        // 总线上传输的数据量：每次缺失取块和每次写回各传送一整块
+        long dataBytes(int blockBytes) { return (busReads + busReadExclusives + writeBacks) * blockBytes; }
+
+        String summary() {
+            return String.format("访存:%d 写:%d 缺失:%d (%.2f%%) BusRd:%d BusRdX:%d BusUpgr:%d 作废:%d 缓存间传送:%d 写回:%d",
+                accesses, writes, misses(), missRate() * 100, busReads, busReadExclusives, busUpgrades,
+                invalidations, cacheToCache, writeBacks);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package Demo1;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * 紧凑二进制访存踪迹格式
+ *
+ * 文件头(32字节): 魔数"CTRF" | 版本(2B) | 标志(2B, 第0位=块压缩) | 请求总数(8B) | 索引偏移(8B) | 块数(4B) | 每块请求数(4B)
+ * 数据块: 每块最多CHUNK_RECORDS条请求，块内地址增量从0开始，可以独立解码；压缩时整块用Deflate压缩
+ * 请求:   varint(节点号<<2 | 写<<1 | 有写入值) + varint(zigzag(地址 - 上一条地址)) [+ 写入值8B]
+ * 索引:   每块 文件偏移(8B) | 存储长度(4B) | 解码后长度(4B) | 请求数(4B) | 首条请求序号(8B)
+ *
+ * 读取器把数据块内存映射后直接解码，逐条读取时不分配对象；借助索引可跳到任意请求序号
+ *
+ * 用法: java [-Dtrace.compress=true] Demo1.TraceFile 文本踪迹 二进制踪迹
+ */
+public class TraceFile {
+    static final int MAGIC = 0x43545246; // "CTRF"
+    static final short VERSION = 1;
+    static final short FLAG_COMPRESSED = 1;
+    static final int HEADER_BYTES = 32;
+    static final int INDEX_ENTRY_BYTES = 28;
+    static final int CHUNK_RECORDS = Integer.getInteger("trace.chunk", 65536);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // 判断文件是否为二进制踪迹
+    static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) { }
+            magic.flip();
+            return magic.remaining() == 4 && magic.getInt() == MAGIC;
+        }
+    }
+
+    /*
+     * 文本踪迹转换为二进制踪迹，返回请求条数；文本第4列为写请求的写入值(16位十六进制)
+     */
+    static long convert(Path text, Path binary, boolean compress) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(text, StandardCharsets.UTF_8);
+             Writer writer = new Writer(binary, compress)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                long ref = TraceRunner.parseLine(line, lineNumber);
+                if (ref < 0) continue;
+                String[] fields = WHITESPACE.split(line.trim());
+                boolean hasValue = TraceEngine.isWrite(ref) && fields.length > 3;
+                long value = 0;
+                if (hasValue) {
+                    try {
+                        value = Long.parseUnsignedLong(fields[3], 16);
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("第" + lineNumber + "行: 无效写入值 " + fields[3], ex);
+                    }
+                }
+                writer.add(TraceEngine.cpuOf(ref), TraceEngine.isWrite(ref), TraceEngine.addressOf(ref), hasValue, value);
+            }
+            return writer.records;
+        }
+    }
+
+    /*
+     * 顺序写出二进制踪迹
+     */
+    static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final boolean compress;
+        private final Deflater deflater;
+        private byte[] chunk = new byte[1 << 16];
+        private byte[] compressed = new byte[1 << 16];
+        private int length;         // 当前块已编码字节数
+        private int chunkCount;     // 当前块请求数
+        private int previous;       // 当前块上一条地址
+        private long records;
+        private ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 64);
+        private int chunks;
+
+        Writer(Path path, boolean compress) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            this.compress = compress;
+            this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            channel.position(HEADER_BYTES);
+        }
+
+        void add(int cpu, boolean write, int address, boolean hasValue, long value) throws IOException {
+            if (cpu < 0 || cpu > 0x7FFF) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+            ensure(24);
+            putVarint((cpu << 2) | (write ? 2 : 0) | (hasValue ? 1 : 0));
+            long delta = (long) address - previous;
+            putVarint((delta << 1) ^ (delta >> 63)); // zigzag
+            if (hasValue) {
+                for (int shift = 56; shift >= 0; shift -= 8) chunk[length++] = (byte) (value >>> shift);
+            }
+            previous = address;
+            chunkCount++;
+            records++;
+            if (chunkCount == CHUNK_RECORDS) flushChunk();
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > chunk.length) chunk = Arrays.copyOf(chunk, chunk.length * 2);
+        }
+
+        private void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                chunk[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            chunk[length++] = (byte) value;
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunkCount == 0) return;
+            long offset = channel.position();
+            int stored = length;
+            ByteBuffer data = ByteBuffer.wrap(chunk, 0, length);
+            if (compress) {
+                deflater.reset();
+                deflater.setInput(chunk, 0, length);
+                deflater.finish();
+                stored = 0;
+                while (!deflater.finished()) {
+                    if (stored == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    stored += deflater.deflate(compressed, stored, compressed.length - stored);
+                }
+                data = ByteBuffer.wrap(compressed, 0, stored);
+            }
+            while (data.hasRemaining()) channel.write(data);
+
+            if (index.remaining() < INDEX_ENTRY_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+                index.flip();
+                larger.put(index);
+                index = larger;
+            }
+            index.putLong(offset).putInt(stored).putInt(length).putInt(chunkCount).putLong(records - chunkCount);
+            chunks++;
+            length = 0;
+            chunkCount = 0;
+            previous = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushChunk();
+                long indexOffset = channel.position();
+                index.flip();
+                while (index.hasRemaining()) channel.write(index);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putShort(VERSION).putShort(compress ? FLAG_COMPRESSED : 0)
+                    .putLong(records).putLong(indexOffset).putInt(chunks).putInt(CHUNK_RECORDS).flip();
+                channel.position(0);
+                while (header.hasRemaining()) channel.write(header);
+            } finally {
+                if (deflater != null) deflater.end();
+                channel.close();
+            }
+        }
+    }
+
+    /*
+     * 基于内存映射的读取器：next()推进到下一条请求，通过访问方法读取当前请求字段
+     */
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final boolean compressed;
+        private final Inflater inflater;
+        final long records;
+        private final long[] offsets;
+        private final int[] storedLengths;
+        private final int[] rawLengths;
+        private final int[] counts;
+        private final long[] firstRecords;
+
+        private ByteBuffer data;        // 当前块(映射或解压后)
+        private byte[] inflated = new byte[0];
+        private int chunk = -1;
+        private int remaining;          // 当前块剩余请求数
+        private long position;          // 下一条请求的序号
+
+        // 当前请求
+        private int cpu;
+        private boolean write;
+        private int address;
+        private boolean hasValue;
+        private long value;
+
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                if (header.getInt() != MAGIC) throw new IOException("不是二进制踪迹文件: " + path);
+                short version = header.getShort();
+                if (version != VERSION) throw new IOException("不支持的踪迹版本: " + version);
+                compressed = (header.getShort() & FLAG_COMPRESSED) != 0;
+                records = header.getLong();
+                long indexOffset = header.getLong();
+                int chunks = header.getInt();
+
+                offsets = new long[chunks];
+                storedLengths = new int[chunks];
+                rawLengths = new int[chunks];
+                counts = new int[chunks];
+                firstRecords = new long[chunks];
+                MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) chunks * INDEX_ENTRY_BYTES);
+                for (int i = 0; i < chunks; i++) {
+                    offsets[i] = index.getLong();
+                    storedLengths[i] = index.getInt();
+                    rawLengths[i] = index.getInt();
+                    counts[i] = index.getInt();
+                    firstRecords[i] = index.getLong();
+                }
+                inflater = compressed ? new Inflater() : null;
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        // 读取下一条请求，踪迹结束返回false
+        boolean next() throws IOException {
+            while (remaining == 0) {
+                if (chunk + 1 >= offsets.length) return false;
+                loadChunk(chunk + 1);
+            }
+            int header = (int) getVarint();
+            long zigzag = getVarint();
+            cpu = header >>> 2;
+            write = (header & 2) != 0;
+            hasValue = (header & 1) != 0;
+            address = (int) (address + ((zigzag >>> 1) ^ -(zigzag & 1)));
+            value = hasValue ? data.getLong() : 0;
+            remaining--;
+            position++;
+            return true;
+        }
+
+        /*
+         * 跳到第record条请求(从0开始)，之后的next()返回该请求
+         */
+        void seek(long record) throws IOException {
+            if (record < 0 || record > records) throw new IllegalArgumentException("请求序号超出范围: " + record);
+            if (record == records) {
+                chunk = offsets.length - 1;
+                remaining = 0;
+                position = records;
+                return;
+            }
+            int target = Arrays.binarySearch(firstRecords, record);
+            if (target < 0) target = -target - 2;
+            loadChunk(target);
+            while (position < record) next();
+        }
+
+        private void loadChunk(int index) throws IOException {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offsets[index], storedLengths[index]);
+            if (compressed) {
+                if (inflated.length < rawLengths[index]) inflated = new byte[rawLengths[index]];
+                inflater.reset();
+                inflater.setInput(mapped);
+                try {
+                    int produced = 0;
+                    while (produced < rawLengths[index]) {
+                        int n = inflater.inflate(inflated, produced, rawLengths[index] - produced);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                        produced += n;
+                    }
+                    if (produced != rawLengths[index]) throw new IOException("数据块" + index + "解压长度不符");
+                } catch (DataFormatException ex) {
+                    throw new IOException("数据块" + index + "已损坏", ex);
+                }
+                data = ByteBuffer.wrap(inflated, 0, rawLengths[index]);
+            } else {
+                data = mapped;
+            }
+            chunk = index;
+            remaining = counts[index];
+            position = firstRecords[index];
+            address = 0;
+        }
+
+        private long getVarint() {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data.get();
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return result;
+            }
+        }
+
+        int cpu() { return cpu; }
+
+        boolean isWrite() { return write; }
+
+        int address() { return address; }
+
+        boolean hasValue() { return hasValue; }
+
+        long value() { return value; }
+
+        // 当前请求打包为TraceEngine使用的long
+        long ref() { return TraceEngine.pack(cpu, write, address); }
+
+        @Override
+        public void close() throws IOException {
+            if (inflater != null) inflater.end();
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("用法: java [-Dtrace.compress=true -Dtrace.chunk=65536] Demo1.TraceFile 文本踪迹 二进制踪迹");
+            System.exit(1);
+        }
+        Path text = Paths.get(args[0]);
+        Path binary = Paths.get(args[1]);
+        long start = System.nanoTime();
+        long records = convert(text, binary, Boolean.getBoolean("trace.compress"));
+        System.out.printf("转换 %d 条请求: %d -> %d 字节, 耗时 %.2fs%n", records,
+            Files.size(text), Files.size(binary), (System.nanoTime() - start) / 1e9);
+    }
+}
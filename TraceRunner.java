@@ -0,0 +1,207 @@
+package Demo1;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
+
+/*
+ * 访存踪迹批量仿真(无界面)
+ * 踪迹为文本，每行: 节点 操作 地址，例如 "CPU01 W 0x001230" 或 "1 写 001230"，
+ * 节点可写作十进制编号或CPU加二进制编号，#开头为注释；写入值若存在则忽略。
+ * 也可以直接读取TraceFile转换得到的二进制踪迹(按文件头自动识别)。
+ * 并行模式按Cache组把踪迹划分到各分片，每个分片由独立线程按原顺序处理，最后合并统计
+ *
+ * 用法: java -Dtrace.shards=8 Demo1.TraceRunner trace.txt
+ */
+public class TraceRunner {
+    static final int NODES = Integer.getInteger("trace.nodes", 4);
+    static final int SETS = Integer.getInteger("trace.sets", 16);
+    static final int WAYS = Integer.getInteger("trace.ways", 1);
+    static final int BLOCK_BYTES = Integer.getInteger("trace.block", 16);
+    static final int SHARDS = Integer.getInteger("trace.shards", Runtime.getRuntime().availableProcessors());
+    static final boolean VERIFY = Boolean.getBoolean("trace.verify"); // 并行后再顺序运行一次并比较
+    static final int CHUNK = 8192;      // 每次交给分片线程的请求数
+    static final int QUEUE_CHUNKS = 8;  // 每个分片排队的最大块数
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // 交给分片线程的一批请求，size为-1表示踪迹结束
+    private static class Chunk {
+        final long[] refs;
+        final int size;
+
+        Chunk(long[] refs, int size) {
+            this.refs = refs;
+            this.size = size;
+        }
+    }
+
+    private static final Chunk END = new Chunk(new long[0], -1);
+
+    /*
+     * 顺序运行整条踪迹
+     */
+    static TraceEngine.Stats runSequential(Path trace, int nodes, int sets, int ways, int blockBytes) throws IOException {
+        TraceEngine engine = new TraceEngine(nodes, sets, ways, blockBytes);
+        readTrace(trace, engine::access);
+        return engine.stats;
+    }
+
+    /*
+     * 按顺序把踪迹中的每条请求(打包为long)交给consumer，文本与二进制踪迹均可
+     */
+    static void readTrace(Path trace, LongConsumer consumer) throws IOException {
+        if (TraceFile.isBinary(trace)) {
+            try (TraceFile.Reader reader = new TraceFile.Reader(trace)) {
+                while (reader.next()) consumer.accept(reader.ref());
+            }
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(trace, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                long ref = parseLine(line, lineNumber);
+                if (ref >= 0) consumer.accept(ref);
+            }
+        }
+    }
+
+    /*
+     * 按Cache组分片并行运行：读取线程解析踪迹并按组号分发，
+     * 每个分片只接收自己负责的组，且保持这些请求在踪迹中的相对顺序
+     */
+    static TraceEngine.Stats runParallel(Path trace, int nodes, int sets, int ways, int blockBytes, int shards)
+            throws IOException, InterruptedException {
+        int shardCount = Math.max(1, Math.min(shards, sets));
+        if (shardCount == 1) return runSequential(trace, nodes, sets, ways, blockBytes);
+
+        TraceEngine router = new TraceEngine(1, sets, 1, blockBytes); // 仅用于计算组号
+        List<BlockingQueue<Chunk>> queues = new ArrayList<>();
+        List<TraceEngine> engines = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+                TraceEngine engine = new TraceEngine(nodes, sets, ways, blockBytes);
+                queues.add(queue);
+                engines.add(engine);
+                workers.add(pool.submit(() -> {
+                    RuntimeException failure = null;
+                    while (true) {
+                        Chunk chunk = queue.take();
+                        if (chunk.size < 0) break;
+                        if (failure != null) continue; // 出错后继续取走数据，避免读取线程阻塞
+                        try {
+                            for (int j = 0; j < chunk.size; j++) engine.access(chunk.refs[j]);
+                        } catch (RuntimeException ex) {
+                            failure = ex;
+                        }
+                    }
+                    if (failure != null) throw failure;
+                    return null;
+                }));
+            }
+
+            long[][] buffers = new long[shardCount][CHUNK];
+            int[] fill = new int[shardCount];
+            try {
+                readTrace(trace, ref -> {
+                    int shard = router.setOf(TraceEngine.addressOf(ref)) % shardCount;
+                    buffers[shard][fill[shard]++] = ref;
+                    if (fill[shard] == CHUNK) {
+                        try {
+                            queues.get(shard).put(new Chunk(buffers[shard], CHUNK));
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("读取踪迹被中断", ex);
+                        }
+                        buffers[shard] = new long[CHUNK];
+                        fill[shard] = 0;
+                    }
+                });
+            } finally {
+                for (int i = 0; i < shardCount; i++) {
+                    if (fill[i] > 0) queues.get(i).put(new Chunk(buffers[i], fill[i]));
+                    queues.get(i).put(END);
+                }
+            }
+
+            TraceEngine.Stats total = new TraceEngine.Stats();
+            for (int i = 0; i < shardCount; i++) {
+                try {
+                    workers.get(i).get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("分片" + i + "仿真失败: " + ex.getCause().getMessage(), ex.getCause());
+                }
+                total.merge(engines.get(i).stats);
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * 解析一行踪迹，空行和注释返回-1
+     */
+    static long parseLine(String line, int lineNumber) {
+        String text = line.trim();
+        if (text.isEmpty() || text.charAt(0) == '#') return -1;
+        String[] fields = WHITESPACE.split(text);
+        if (fields.length < 3) throw new IllegalArgumentException("第" + lineNumber + "行: 格式应为 节点 操作 地址");
+        try {
+            String node = fields[0].toUpperCase();
+            int cpu = node.startsWith("CPU") ? Integer.parseInt(node.substring(3), 2) : Integer.parseInt(node);
+            // pack只给节点号留15位，越界会溢出到写标志位
+            if (cpu < 0 || cpu > 0x7FFF) throw new IllegalArgumentException("节点号超出范围: " + cpu);
+            boolean write;
+            switch (fields[1].toUpperCase()) {
+                case "读": case "R": write = false; break;
+                case "写": case "W": write = true; break;
+                default: throw new IllegalArgumentException("未知操作类型: " + fields[1]);
+            }
+            String address = fields[2];
+            if (address.startsWith("0x") || address.startsWith("0X")) address = address.substring(2);
+            return TraceEngine.pack(cpu, write, Integer.parseUnsignedInt(address, 16));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("第" + lineNumber + "行: " + ex.getMessage(), ex);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java [-Dtrace.nodes=4 -Dtrace.sets=16 -Dtrace.ways=1 -Dtrace.block=16 -Dtrace.shards=N -Dtrace.verify=true] Demo1.TraceRunner 踪迹文件");
+            System.exit(1);
+        }
+        Path trace = Paths.get(args[0]);
+        long start = System.nanoTime();
+        TraceEngine.Stats stats = runParallel(trace, NODES, SETS, WAYS, BLOCK_BYTES, SHARDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("节点:%d 组:%d 相联度:%d 块:%dB 分片:%d%n", NODES, SETS, WAYS, BLOCK_BYTES,
+            Math.max(1, Math.min(SHARDS, SETS)));
+        System.out.println(stats.summary());
+        System.out.printf("耗时: %.2fs (%.1f M访存/秒)%n", seconds, stats.accesses / seconds / 1e6);
+
+        if (VERIFY) {
+            TraceEngine.Stats sequential = runSequential(trace, NODES, SETS, WAYS, BLOCK_BYTES);
+            boolean same = sequential.summary().equals(stats.summary());
+            System.out.println("顺序运行" + (same ? "结果一致" : "结果不一致: " + sequential.summary()));
+            if (!same) System.exit(2);
+        }
+    }
+}
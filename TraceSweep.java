@@ -0,0 +1,219 @@
+package Demo1;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * 设计空间参数扫描(无界面)
+ * 对参数网格(节点数×组数×相联度×块大小×协议)中的每个配置运行同一条踪迹。
+ * 踪迹只解析一次，打包成long写入临时文件并内存映射，所有配置线程共享这份只读映射，
+ * 各自按顺序读取。结果按网格顺序写成CSV或JSON(由输出文件扩展名决定)。
+ * 节点数少于踪迹中CPU数的配置无法按原样运行踪迹，被跳过，不写入结果
+ *
+ * 用法: java -Dsweep.nodes=2,4,8 -Dsweep.sets=16,64 -Dsweep.ways=1,2 -Dsweep.block=16,32
+ *            -Dsweep.protocol=MSI,MESI -Dsweep.output=sweep.csv Demo1.TraceSweep trace.txt
+ */
+public class TraceSweep {
+    static final int THREADS = Integer.getInteger("sweep.threads", Runtime.getRuntime().availableProcessors());
+    static final String OUTPUT = System.getProperty("sweep.output", "sweep.csv");
+    static final int SEGMENT_LONGS = 1 << 27; // 每段映射的请求数(1GB)，单个映射不能超过2GB
+
+    // 网格中的一个配置点及其结果
+    static class Point {
+        final int nodes;
+        final int sets;
+        final int ways;
+        final int blockBytes;
+        final String protocol;
+        TraceEngine.Stats stats;
+        double seconds;
+
+        Point(int nodes, int sets, int ways, int blockBytes, String protocol) {
+            this.nodes = nodes;
+            this.sets = sets;
+            this.ways = ways;
+            this.blockBytes = blockBytes;
+            this.protocol = protocol;
+        }
+
+        double throughput() { return seconds == 0 ? 0 : stats.accesses / seconds; }
+
+        String label() {
+            return String.format("nodes=%d sets=%d ways=%d block=%d %s", nodes, sets, ways, blockBytes, protocol);
+        }
+    }
+
+    /*
+     * 解析踪迹(文本或二进制)并映射为只读long缓冲区(按段)
+     */
+    static List<LongBuffer> mapTrace(Path trace) throws IOException {
+        Path packed = Files.createTempFile("trace", ".bin");
+        packed.toFile().deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(packed), 1 << 16))) {
+            TraceRunner.readTrace(trace, ref -> {
+                try {
+                    out.writeLong(ref);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        List<LongBuffer> segments = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(packed, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long segmentBytes = (long) SEGMENT_LONGS * Long.BYTES;
+            for (long position = 0; position < size; position += segmentBytes) {
+                long length = Math.min(segmentBytes, size - position);
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, length).asLongBuffer());
+            }
+        }
+        return segments;
+    }
+
+    // 踪迹中的CPU数(最大节点号加1)
+    static int cpuCount(List<LongBuffer> segments) {
+        int maxCpu = -1;
+        for (LongBuffer segment : segments) {
+            LongBuffer view = segment.duplicate();
+            while (view.hasRemaining()) maxCpu = Math.max(maxCpu, TraceEngine.cpuOf(view.get()));
+        }
+        return maxCpu + 1;
+    }
+
+    /*
+     * 在一个配置上运行整条踪迹
+     */
+    static void run(Point point, List<LongBuffer> segments) {
+        TraceEngine engine = new TraceEngine(point.nodes, point.sets, point.ways, point.blockBytes, point.protocol);
+        long start = System.nanoTime();
+        for (LongBuffer segment : segments) {
+            LongBuffer view = segment.duplicate(); // 每个线程独立的读位置
+            while (view.hasRemaining()) {
+                long ref = view.get();
+                engine.access(TraceEngine.cpuOf(ref), TraceEngine.isWrite(ref), TraceEngine.addressOf(ref));
+            }
+        }
+        point.seconds = (System.nanoTime() - start) / 1e9;
+        point.stats = engine.stats;
+    }
+
+    // 展开参数网格
+    static List<Point> grid() {
+        List<Point> points = new ArrayList<>();
+        for (int nodes : intList("sweep.nodes", "4"))
+            for (int sets : intList("sweep.sets", "16"))
+                for (int ways : intList("sweep.ways", "1"))
+                    for (int block : intList("sweep.block", "16"))
+                        for (String protocol : System.getProperty("sweep.protocol", "MSI").split(","))
+                            points.add(new Point(nodes, sets, ways, block, protocol.trim().toUpperCase()));
+        return points;
+    }
+
+    private static List<Integer> intList(String property, String defaultValue) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : System.getProperty(property, defaultValue).split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+
+    static void writeCsv(List<Point> points, Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("nodes,sets,ways,block,protocol,accesses,seconds,accesses_per_sec,misses,miss_rate,"
+                + "bus_reads,bus_read_exclusives,bus_upgrades,invalidations,cache_to_cache,write_backs,data_bytes");
+            writer.newLine();
+            for (Point p : points) {
+                TraceEngine.Stats s = p.stats;
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%s,%d,%.3f,%.0f,%d,%.6f,%d,%d,%d,%d,%d,%d,%d",
+                    p.nodes, p.sets, p.ways, p.blockBytes, p.protocol, s.accesses, p.seconds, p.throughput(),
+                    s.misses(), s.missRate(), s.busReads, s.busReadExclusives, s.busUpgrades,
+                    s.invalidations, s.cacheToCache, s.writeBacks, s.dataBytes(p.blockBytes)));
+                writer.newLine();
+            }
+        }
+    }
+
+    static void writeJson(List<Point> points, Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("[");
+            for (int i = 0; i < points.size(); i++) {
+                Point p = points.get(i);
+                TraceEngine.Stats s = p.stats;
+                writer.newLine();
+                writer.write(String.format(Locale.ROOT, "  {\"nodes\": %d, \"sets\": %d, \"ways\": %d, \"block\": %d, \"protocol\": \"%s\", "
+                    + "\"accesses\": %d, \"seconds\": %.3f, \"accessesPerSec\": %.0f, \"misses\": %d, \"missRate\": %.6f, "
+                    + "\"busReads\": %d, \"busReadExclusives\": %d, \"busUpgrades\": %d, \"invalidations\": %d, "
+                    + "\"cacheToCache\": %d, \"writeBacks\": %d, \"dataBytes\": %d}%s",
+                    p.nodes, p.sets, p.ways, p.blockBytes, p.protocol, s.accesses, p.seconds, p.throughput(),
+                    s.misses(), s.missRate(), s.busReads, s.busReadExclusives, s.busUpgrades,
+                    s.invalidations, s.cacheToCache, s.writeBacks, s.dataBytes(p.blockBytes),
+                    i + 1 < points.size() ? "," : ""));
+            }
+            writer.newLine();
+            writer.write("]");
+            writer.newLine();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java [-Dsweep.nodes=.. -Dsweep.sets=.. -Dsweep.ways=.. -Dsweep.block=.. -Dsweep.protocol=MSI,MESI -Dsweep.threads=N -Dsweep.output=sweep.csv|sweep.json] Demo1.TraceSweep 踪迹文件");
+            System.exit(1);
+        }
+        List<Point> points = grid();
+        // 先构造一次引擎检查参数，避免运行到一半才报错
+        for (Point p : points) new TraceEngine(p.nodes, 1, p.ways, p.blockBytes, p.protocol);
+
+        List<LongBuffer> segments = mapTrace(Paths.get(args[0]));
+        int traceCpus = cpuCount(segments);
+        points.removeIf(p -> {
+            if (p.nodes >= traceCpus) return false;
+            System.out.printf("%s  跳过: 踪迹有%d个CPU%n", p.label(), traceCpus);
+            return true;
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, points.size())));
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Point p : points) {
+                futures.add(pool.submit(() -> {
+                    run(p, segments);
+                    System.out.printf("%s  缺失率:%.2f%% %.1f M访存/秒%n", p.label(), p.stats.missRate() * 100, p.throughput() / 1e6);
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(points.get(i).label() + " 仿真失败: " + ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Path output = Paths.get(OUTPUT);
+        if (OUTPUT.toLowerCase().endsWith(".json")) writeJson(points, output); else writeCsv(points, output);
+        System.out.printf("%d个配置完成，总耗时 %.2fs，结果写入 %s%n", points.size(), (System.nanoTime() - start) / 1e9, output);
+    }
+}
@@ -0,0 +1,35 @@
+package Demo1;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * 用Vector API实现的标签匹配：一次比较一整个向量的标签，取第一个相等的通道
+ * 先用平台首选宽度，剩余部分用128位向量，最后不足4个的逐个比较。
+ * 依赖孵化模块，单独放在simd目录，不随其余源文件编译：先编译其余源文件，再带 --add-modules jdk.incubator.vector
+ * 编译本文件到同一输出目录(见README)。由TagMatcher.create()通过反射加载，类不存在或模块未加入时自动退回标量实现
+ */
+final class VectorTagMatcher implements TagMatcher {
+    private static final VectorSpecies<Integer> PREFERRED = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> NARROW = IntVector.SPECIES_128;
+
+    @Override
+    public int find(int[] tags, int from, int to, int tag) {
+        if (to - from < PREFERRED.length()) return SCALAR.find(tags, from, to, tag); // 不足一个向量时逐个比较更快
+        int i = from;
+        for (int bound = from + PREFERRED.loopBound(to - from); i < bound; i += PREFERRED.length()) {
+            VectorMask<Integer> hits = IntVector.fromArray(PREFERRED, tags, i).compare(VectorOperators.EQ, tag);
+            if (hits.anyTrue()) return i + hits.firstTrue();
+        }
+        for (int bound = i + NARROW.loopBound(to - i); i < bound; i += NARROW.length()) {
+            VectorMask<Integer> hits = IntVector.fromArray(NARROW, tags, i).compare(VectorOperators.EQ, tag);
+            if (hits.anyTrue()) return i + hits.firstTrue();
+        }
+        for (; i < to; i++) {
+            if (tags[i] == tag) return i;
+        }
+        return -1;
+    }
+}